@@ -0,0 +1,59 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.aggregations.SearchAggregation;
+import com.greendelta.search.wrapper.aggregations.results.AggregationResult;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationBenchmark {
+
+	@Param({ "10", "1000" })
+	public int buckets;
+
+	private final Config config = new Config();
+	private SearchQuery query;
+	private StubResponse response;
+
+	@Setup
+	public void setup() {
+		query = Fixtures.query(Fixtures.Shape.FACETS);
+		response = new StubResponse(0, 0, 4, buckets);
+	}
+
+	@Benchmark
+	public List<AggregationBuilder> builders() {
+		List<AggregationBuilder> builders = new ArrayList<>();
+		for (SearchAggregation aggregation : query.getAggregations()) {
+			builders.add(Aggregation.builder(aggregation, config));
+		}
+		return builders;
+	}
+
+	@Benchmark
+	public List<AggregationResult> results() {
+		return Result.aggregations(response);
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import com.greendelta.search.wrapper.SearchFilterValue;
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.SearchQueryBuilder;
+import com.greendelta.search.wrapper.aggregations.RangeAggregation;
+import com.greendelta.search.wrapper.aggregations.TermsAggregation;
+import com.greendelta.search.wrapper.score.Case;
+import com.greendelta.search.wrapper.score.Comparator;
+import com.greendelta.search.wrapper.score.Condition;
+import com.greendelta.search.wrapper.score.Field;
+import com.greendelta.search.wrapper.score.Score;
+
+/**
+ * Search queries and scores shaped like the ones of the applications using
+ * the wrapper.
+ */
+class Fixtures {
+
+	enum Shape {
+
+		/** A single term filter. */
+		SIMPLE,
+
+		/** Many filters on top level and nested fields with several values. */
+		FILTERS,
+
+		/** Filters with terms and range aggregations on nested fields. */
+		FACETS,
+
+		/** Filters with a score of many cases. */
+		SCORED;
+
+	}
+
+	static SearchQuery query(Shape shape) {
+		SearchQueryBuilder builder = new SearchQueryBuilder();
+		builder.page(1).pageSize(20).fullResult();
+		builder.filter("type", SearchFilterValue.term("PROCESS"));
+		if (shape == Shape.SIMPLE)
+			return builder.build();
+		for (int i = 0; i < 10; i++) {
+			builder.filter("field" + i, SearchFilterValue.term(Arrays.asList("a" + i, "b" + i, "c" + i)));
+		}
+		builder.filter("category.name", SearchFilterValue.phrase("electricity production"));
+		builder.filter("category.parent.name", SearchFilterValue.wildcard("energ*"));
+		builder.filter("location.exchanges.flow.name", SearchFilterValue.term(Arrays.asList("CO2", "CH4", "N2O")));
+		builder.filter(new HashSet<>(Arrays.asList("name", "description", "tags")),
+				SearchFilterValue.phrase("hard coal"));
+		if (shape == Shape.FACETS) {
+			builder.aggregation(new TermsAggregation("types", "type"));
+			builder.aggregation(new TermsAggregation("categories", "category.name"));
+			builder.aggregation(new TermsAggregation("flows", "location.exchanges.flow.name"));
+			builder.aggregation(new RangeAggregation("years", "validFrom",
+					Arrays.asList(new Double[] { null, 2000d }, new Double[] { 2000d, 2010d },
+							new Double[] { 2010d, null })));
+		}
+		if (shape == Shape.SCORED) {
+			builder.score(score(20));
+		}
+		return builder.build();
+	}
+
+	// mixes conditions that can be scored natively with distance calculations
+	static Score score(int cases) {
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015L));
+		score.addField(new Field("latitude", 52.5d));
+		score.addField(new Field("longitude", 13.4d));
+		for (int i = 0; i < cases; i++) {
+			if (i % 2 == 0) {
+				score.addCase(new Case(cases - i,
+						new Condition("fieldValues[0]", Comparator.IS_GREATER_OR_EQUAL_THAN, 2000L + i)));
+			} else {
+				score.addCase(new Case(cases - i, new Condition(
+						"getDistance(fieldValues[1], fieldValues[2], values[1], values[2])",
+						Comparator.IS_LESS_THAN, 10d * i)));
+			}
+		}
+		return score;
+	}
+
+	// only conditions that compare field values with constants
+	static Score nativeScore(int cases) {
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015L));
+		for (int i = 0; i < cases; i++) {
+			score.addCase(new Case(cases - i,
+					new Condition("fieldValues[0]", Comparator.IS_GREATER_OR_EQUAL_THAN, 2000L + i)));
+		}
+		return score;
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.greendelta.search.wrapper.SearchQuery;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+	@Param({ "SIMPLE", "FILTERS", "FACETS", "SCORED" })
+	public String shape;
+
+	private SearchQuery query;
+
+	@Setup
+	public void setup() {
+		query = Fixtures.query(Fixtures.Shape.valueOf(shape));
+	}
+
+	@Benchmark
+	public QueryBuilder create() {
+		return Query.create(query);
+	}
+
+	// the query is serialized for every request that is sent
+	@Benchmark
+	public String createAndSerialize() {
+		return Query.create(query).toString();
+	}
+
+}
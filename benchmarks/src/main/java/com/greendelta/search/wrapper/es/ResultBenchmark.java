@@ -0,0 +1,72 @@
+package com.greendelta.search.wrapper.es;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.SearchResult;
+
+/**
+ * Decoding of hits, run with "-prof gc" to compare the allocation rates of
+ * full sources and projections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultBenchmark {
+
+	@Param({ "100", "1000" })
+	public int hits;
+
+	@Param({ "10", "50" })
+	public int fields;
+
+	private SearchQuery query;
+	private StubResponse response;
+	private Projection projection;
+
+	@Setup
+	public void setup() {
+		query = Fixtures.query(Fixtures.Shape.FACETS);
+		response = new StubResponse(hits, fields, 4, 20);
+		projection = new Projection(new String[] { "id", "field1" }, false);
+	}
+
+	@Benchmark
+	public SearchResult<Map<String, Object>> search() {
+		return Search.run(new StubRequest(response), query);
+	}
+
+	@Benchmark
+	public void sourceAsMap(Blackhole blackhole) {
+		for (SearchHit hit : response.getHits()) {
+			blackhole.consume(hit.getSourceAsMap());
+		}
+	}
+
+	@Benchmark
+	public void projection(Blackhole blackhole) throws IOException {
+		for (SearchHit hit : response.getHits()) {
+			blackhole.consume(projection.read(hit));
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.greendelta.search.wrapper.score.Score;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoreBenchmark {
+
+	@Param({ "5", "20", "50" })
+	public int cases;
+
+	private Score score;
+	private Score nativeScore;
+
+	@Setup
+	public void setup() {
+		score = Fixtures.score(cases);
+		nativeScore = Fixtures.nativeScore(cases);
+	}
+
+	@Benchmark
+	public org.elasticsearch.script.Script script() {
+		return Script.from(score);
+	}
+
+	@Benchmark
+	public QueryBuilder nativeScore() {
+		return NativeScore.apply(QueryBuilders.matchAllQuery(), nativeScore);
+	}
+
+}
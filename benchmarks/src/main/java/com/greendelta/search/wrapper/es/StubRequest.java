@@ -0,0 +1,113 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import com.greendelta.search.wrapper.es.Search.EsRequest;
+import com.greendelta.search.wrapper.es.Search.EsResponse;
+
+/**
+ * Returns the same response for every page without a cluster, the request
+ * settings are ignored.
+ */
+class StubRequest implements EsRequest {
+
+	private final Config config = new Config();
+	private final EsResponse response;
+
+	StubRequest(EsResponse response) {
+		this.response = response;
+	}
+
+	@Override
+	public Config getConfig() {
+		return config;
+	}
+
+	@Override
+	public void setFrom(int from) {
+	}
+
+	@Override
+	public void setSize(int size) {
+	}
+
+	@Override
+	public void setSearchAfter(Object[] values) {
+	}
+
+	@Override
+	public void setFetchSource(boolean fetch) {
+	}
+
+	@Override
+	public void setFetchSource(String[] includes, String[] excludes) {
+	}
+
+	@Override
+	public void addDocValueField(String field) {
+	}
+
+	@Override
+	public void setSlice(int id, int max) {
+	}
+
+	@Override
+	public void setTrackTotalHits(boolean track) {
+	}
+
+	@Override
+	public void setTrackTotalHitsUpTo(int limit) {
+	}
+
+	@Override
+	public void setScroll(long keepAlive) {
+	}
+
+	@Override
+	public void setTimeout(long timeout) {
+	}
+
+	@Override
+	public void setTerminateAfter(int maxHits) {
+	}
+
+	@Override
+	public void setRouting(String routing) {
+	}
+
+	@Override
+	public void addSort(String field, SortOrder order) {
+	}
+
+	@Override
+	public void addAggregation(AggregationBuilder aggregation) {
+	}
+
+	@Override
+	public void setQuery(QueryBuilder query) {
+	}
+
+	@Override
+	public EsResponse execute() {
+		return response;
+	}
+
+	@Override
+	public CompletableFuture<EsResponse> executeAsync() {
+		return CompletableFuture.completedFuture(response);
+	}
+
+	@Override
+	public EsResponse scroll(String scrollId) {
+		return response;
+	}
+
+	@Override
+	public void clearScroll(String scrollId) {
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms.Bucket;
+
+import com.greendelta.search.wrapper.es.Search.EsResponse;
+
+/**
+ * A response with generated documents and terms aggregations. Hits are
+ * created on every call, because a hit caches its parsed source and would
+ * otherwise only be decoded once.
+ */
+class StubResponse implements EsResponse {
+
+	private final BytesReference[] sources;
+	private final List<Aggregation> aggregations = new ArrayList<>();
+
+	StubResponse(int hits, int fields, int aggregations, int buckets) {
+		sources = new BytesReference[hits];
+		for (int i = 0; i < hits; i++) {
+			sources[i] = new BytesArray(source(i, fields));
+		}
+		for (int i = 0; i < aggregations; i++) {
+			this.aggregations.add(terms("aggregation" + i, buckets));
+		}
+	}
+
+	private static String source(int doc, int fields) {
+		StringBuilder json = new StringBuilder("{");
+		for (int i = 0; i < fields; i++) {
+			json.append("\"field").append(i).append("\":");
+			switch (i % 4) {
+			case 0:
+				json.append("\"value ").append(doc).append('-').append(i).append('"');
+				break;
+			case 1:
+				json.append(doc * i);
+				break;
+			case 2:
+				json.append("[\"a\",\"b\",\"c\"]");
+				break;
+			default:
+				json.append("{\"name\":\"object ").append(doc).append("\",\"amount\":").append(i * 0.5).append('}');
+			}
+			json.append(',');
+		}
+		json.append("\"id\":\"").append(doc).append("\"}");
+		return json.toString();
+	}
+
+	private static StringTerms terms(String name, int buckets) {
+		List<StringTerms.Bucket> list = new ArrayList<>();
+		for (int i = 0; i < buckets; i++) {
+			list.add(new StringTerms.Bucket(new BytesRef("term" + i), buckets - i, InternalAggregations.EMPTY,
+					false, 0, DocValueFormat.RAW));
+		}
+		return new StringTerms(name, BucketOrder.count(false), BucketOrder.count(false), buckets, 1,
+				Collections.emptyMap(), DocValueFormat.RAW, buckets, false, 0, list, 0);
+	}
+
+	@Override
+	public SearchHit[] getHits() {
+		SearchHit[] hits = new SearchHit[sources.length];
+		for (int i = 0; i < sources.length; i++) {
+			hits[i] = new SearchHit(i, Integer.toString(i), null, Collections.emptyMap(), Collections.emptyMap());
+			hits[i].sourceRef(sources[i]);
+		}
+		return hits;
+	}
+
+	@Override
+	public String getScrollId() {
+		return null;
+	}
+
+	@Override
+	public long getTotalHits() {
+		return sources.length;
+	}
+
+	@Override
+	public boolean isTotalHitsExact() {
+		return true;
+	}
+
+	@Override
+	public boolean isTimedOut() {
+		return false;
+	}
+
+	@Override
+	public boolean isTerminatedEarly() {
+		return false;
+	}
+
+	@Override
+	public int getFailedShards() {
+		return 0;
+	}
+
+	@Override
+	public List<Aggregation> getAggregations() {
+		return aggregations;
+	}
+
+	@Override
+	public List<? extends Bucket> getTermBuckets(Aggregation aggregation) {
+		return ((StringTerms) aggregation).getBuckets();
+	}
+
+	@Override
+	public List<? extends org.elasticsearch.search.aggregations.bucket.range.Range.Bucket> getRangeBuckets(
+			Aggregation aggregation) {
+		return new ArrayList<>();
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.greendelta.search.wrapper.es.loadtest;
+
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.InternalSettingsPreparer;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.transport.Netty4Plugin;
+
+/**
+ * A single node cluster running in the same JVM. The node binds to the
+ * loopback interface only, which also keeps the bootstrap checks disabled.
+ */
+class EmbeddedNode extends Node {
+
+	EmbeddedNode(Path home) {
+		super(InternalSettingsPreparer.prepareEnvironment(settings(home), Collections.emptyMap(), null,
+				() -> "loadtest"), Collections.singletonList(Netty4Plugin.class), true);
+	}
+
+	private static Settings settings(Path home) {
+		return Settings.builder()
+				.put("cluster.name", "loadtest")
+				.put("node.name", "loadtest")
+				.put("path.home", home.toString())
+				.put("discovery.type", "single-node")
+				.put("network.host", "127.0.0.1")
+				.put("transport.type", Netty4Plugin.NETTY_TRANSPORT_NAME)
+				.put("http.type", Netty4Plugin.NETTY_HTTP_TRANSPORT_NAME)
+				.put("cluster.routing.allocation.disk.threshold_enabled", false)
+				.build();
+	}
+
+}
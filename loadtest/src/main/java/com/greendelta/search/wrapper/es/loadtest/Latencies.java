@@ -0,0 +1,56 @@
+package com.greendelta.search.wrapper.es.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records the latencies of one operation. Each worker thread has its own
+ * instances, which are merged after the run, so recording needs no
+ * synchronization.
+ */
+class Latencies {
+
+	private long[] values = new long[1024];
+	private int size;
+	private int failures;
+
+	void record(long nanos) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = nanos;
+	}
+
+	void failed() {
+		failures++;
+	}
+
+	void merge(Latencies other) {
+		if (size + other.size > values.length) {
+			values = Arrays.copyOf(values, size + other.size);
+		}
+		System.arraycopy(other.values, 0, values, size, other.size);
+		size += other.size;
+		failures += other.failures;
+	}
+
+	int count() {
+		return size;
+	}
+
+	int failures() {
+		return failures;
+	}
+
+	/** Sorts the recorded values, must be called before reading percentiles. */
+	void sort() {
+		Arrays.sort(values, 0, size);
+	}
+
+	long percentile(double p) {
+		if (size == 0)
+			return 0;
+		int index = (int) Math.ceil(p * size) - 1;
+		return values[Math.max(0, Math.min(index, size - 1))];
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.greendelta.search.wrapper.es.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import org.elasticsearch.node.Node;
+
+import com.greendelta.search.wrapper.es.EsClient;
+import com.greendelta.search.wrapper.es.Refresh;
+
+/**
+ * Runs a mixed workload against an embedded node and prints the throughput
+ * and latency percentiles of each operation. Arguments are given as
+ * key=value pairs:
+ *
+ * <pre>
+ * documents=100000 threads=8 warmup=10 duration=60 refresh=immediate
+ * mix=search:40,ids:10,facets:20,index:5,update:10,remove:10,bulk:5
+ * </pre>
+ *
+ * Durations are in seconds, refresh is one of the {@link Refresh} values used
+ * for the write operations. Operations missing in the mix are not executed.
+ * Exceptions, reported failures and partial search results count as failed
+ * operations.
+ */
+public class LoadTest {
+
+	private static final String INDEX = "loadtest";
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = options(args);
+		int documents = Integer.parseInt(options.getOrDefault("documents", "100000"));
+		int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+		long warmup = Long.parseLong(options.getOrDefault("warmup", "10"));
+		long duration = Long.parseLong(options.getOrDefault("duration", "60"));
+		Refresh refresh = Refresh.valueOf(options.getOrDefault("refresh", "immediate").toUpperCase());
+		Map<Operation, Integer> mix = mix(options.get("mix"));
+
+		Path home = Files.createTempDirectory("search-wrapper-loadtest");
+		Node node = new EmbeddedNode(home);
+		try {
+			node.start();
+			EsClient client = new EsClient(node.client(), INDEX, "_doc");
+			client.create(Workload.settings());
+			node.client().admin().cluster().prepareHealth(INDEX).setWaitForGreenStatus().get();
+			EsClient bulk = new EsClient(node.client(), INDEX, "_doc");
+			Workload workload = new Workload(client, bulk, documents);
+			long start = System.nanoTime();
+			workload.load();
+			System.out.printf("Loaded %d documents in %.1f s%n", documents, (System.nanoTime() - start) / 1e9);
+			client.setRefresh(refresh);
+			bulk.setRefresh(refresh);
+			bulk.startBulkWriter(1000, 5 * 1024 * 1024, 0, 1);
+			try {
+				if (warmup > 0) {
+					run(workload, mix, threads, warmup);
+				}
+				Map<Operation, Latencies> results = run(workload, mix, threads, duration);
+				report(results, threads, duration);
+			} finally {
+				bulk.stopBulkWriter();
+			}
+		} finally {
+			node.close();
+			delete(home);
+		}
+	}
+
+	private static Map<String, String> options(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index <= 0)
+				throw new IllegalArgumentException("Expected key=value but got " + arg);
+			options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+		return options;
+	}
+
+	private static Map<Operation, Integer> mix(String value) {
+		Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+		if (value == null) {
+			for (Operation operation : Operation.values()) {
+				mix.put(operation, operation.defaultWeight);
+			}
+			return mix;
+		}
+		for (String entry : value.split(",")) {
+			String[] parts = entry.split(":");
+			if (parts.length != 2)
+				throw new IllegalArgumentException("Expected operation:weight but got " + entry);
+			mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+		}
+		return mix;
+	}
+
+	private static Map<Operation, Latencies> run(Workload workload, Map<Operation, Integer> mix, int threads,
+			long seconds) throws Exception {
+		Operation[] table = table(mix);
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Map<Operation, Latencies>>> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			workers.add(executor.submit(() -> work(workload, table, deadline)));
+		}
+		Map<Operation, Latencies> merged = new EnumMap<>(Operation.class);
+		try {
+			for (Future<Map<Operation, Latencies>> worker : workers) {
+				for (Map.Entry<Operation, Latencies> entry : worker.get().entrySet()) {
+					merged.computeIfAbsent(entry.getKey(), o -> new Latencies()).merge(entry.getValue());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return merged;
+	}
+
+	// one slot per weight unit, so picking a random slot follows the mix
+	private static Operation[] table(Map<Operation, Integer> mix) {
+		List<Operation> table = new ArrayList<>();
+		for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+			for (int i = 0; i < entry.getValue(); i++) {
+				table.add(entry.getKey());
+			}
+		}
+		if (table.isEmpty())
+			throw new IllegalArgumentException("The mix contains no operations");
+		return table.toArray(new Operation[table.size()]);
+	}
+
+	private static Map<Operation, Latencies> work(Workload workload, Operation[] table, long deadline) {
+		Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+		Random random = ThreadLocalRandom.current();
+		while (System.nanoTime() < deadline) {
+			Operation operation = table[random.nextInt(table.length)];
+			Latencies target = latencies.computeIfAbsent(operation, o -> new Latencies());
+			long start = System.nanoTime();
+			try {
+				if (workload.execute(operation, random)) {
+					target.record(System.nanoTime() - start);
+				} else {
+					target.failed();
+				}
+			} catch (RuntimeException e) {
+				target.failed();
+			}
+		}
+		return latencies;
+	}
+
+	private static void report(Map<Operation, Latencies> results, int threads, long seconds) {
+		System.out.printf("%d threads, %d s%n", threads, seconds);
+		System.out.printf("%-10s %10s %8s %10s %10s %10s %10s%n", "operation", "count", "failed", "ops/s",
+				"p50 ms", "p99 ms", "p999 ms");
+		int total = 0;
+		for (Map.Entry<Operation, Latencies> entry : results.entrySet()) {
+			Latencies latencies = entry.getValue();
+			latencies.sort();
+			total += latencies.count();
+			System.out.printf("%-10s %10d %8d %10.1f %10.2f %10.2f %10.2f%n", entry.getKey().name().toLowerCase(),
+					latencies.count(), latencies.failures(), latencies.count() / (double) seconds,
+					latencies.percentile(0.5) / 1e6, latencies.percentile(0.99) / 1e6,
+					latencies.percentile(0.999) / 1e6);
+		}
+		System.out.printf("%-10s %10d %8s %10.1f%n", "total", total, "", total / (double) seconds);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.greendelta.search.wrapper.es.loadtest;
+
+/**
+ * The operations of the mixed workload. The default weights give the share
+ * of each operation in percent and can be changed with the mix argument.
+ */
+enum Operation {
+
+	/** A filtered search for one page of full documents. */
+	SEARCH(40),
+
+	/** An unpaged search that collects all matching ids. */
+	IDS(10),
+
+	/** A filtered search with terms and range aggregations. */
+	FACETS(20),
+
+	/** Indexes a new version of a random document. */
+	INDEX(5),
+
+	/** Updates a field of a random document. */
+	UPDATE(10),
+
+	/** Removes a random document, which is indexed again later. */
+	REMOVE(10),
+
+	/** Indexes a batch of random documents with the bulk writer and flushes it. */
+	BULK(5);
+
+	final int defaultWeight;
+
+	private Operation(int defaultWeight) {
+		this.defaultWeight = defaultWeight;
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.greendelta.search.wrapper.es.loadtest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.greendelta.search.wrapper.SearchFilterValue;
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.SearchQueryBuilder;
+import com.greendelta.search.wrapper.aggregations.RangeAggregation;
+import com.greendelta.search.wrapper.aggregations.TermsAggregation;
+import com.greendelta.search.wrapper.es.EsClient;
+import com.greendelta.search.wrapper.es.EsSearchResult;
+import com.greendelta.search.wrapper.es.Instrumentation;
+
+/**
+ * Synthetic documents and the execution of the operations against them.
+ * Documents have a few keyword fields with small cardinalities, so filters
+ * match a stable share of the index and aggregations return several buckets.
+ * Bulk operations write through a second client with a running bulk writer.
+ */
+class Workload {
+
+	static final String MAPPING = "{\"properties\":{"
+			+ "\"type\":{\"type\":\"keyword\"},"
+			+ "\"category\":{\"type\":\"keyword\"},"
+			+ "\"location\":{\"type\":\"keyword\"},"
+			+ "\"name\":{\"type\":\"text\"},"
+			+ "\"year\":{\"type\":\"integer\"},"
+			+ "\"amount\":{\"type\":\"double\"},"
+			+ "\"version\":{\"type\":\"integer\"}}}";
+
+	private static final String[] TYPES = { "PROCESS", "FLOW", "PRODUCT_SYSTEM", "IMPACT_METHOD", "SOURCE" };
+	private static final int CATEGORIES = 50;
+	private static final int LOCATIONS = 200;
+
+	private static final int BATCH = 100;
+
+	private final EsClient client;
+	private final EsClient bulk;
+	private final int documents;
+	private final ThreadLocal<Boolean> reported = ThreadLocal.withInitial(() -> false);
+
+	Workload(EsClient client, EsClient bulk, int documents) {
+		this.client = client;
+		this.bulk = bulk;
+		this.documents = documents;
+		// operations run synchronously, so the client reports their failures
+		// on the thread that executes them
+		Instrumentation instrumentation = new Instrumentation() {
+			@Override
+			public void failure(String operation, Throwable error) {
+				reported.set(true);
+			}
+		};
+		client.setInstrumentation(instrumentation);
+		bulk.setInstrumentation(instrumentation);
+	}
+
+	static Map<String, String> settings() {
+		Map<String, String> settings = new HashMap<>();
+		settings.put("config", "{\"number_of_replicas\":0}");
+		settings.put("mapping", MAPPING);
+		return settings;
+	}
+
+	void load() {
+		client.startBulkIngest();
+		client.startBulkWriter(5000, 5 * 1024 * 1024, 1000, 1);
+		try {
+			Random random = new Random(42);
+			for (int i = 0; i < documents; i++) {
+				client.index(Integer.toString(i), document(i, random));
+			}
+		} finally {
+			client.stopBulkWriter();
+			client.stopBulkIngest();
+		}
+	}
+
+	static Map<String, Object> document(int id, Random random) {
+		Map<String, Object> document = new HashMap<>();
+		document.put("type", TYPES[id % TYPES.length]);
+		document.put("category", "category " + random.nextInt(CATEGORIES));
+		document.put("location", "location " + random.nextInt(LOCATIONS));
+		document.put("name", "document " + id + " of category " + random.nextInt(CATEGORIES));
+		document.put("year", 1990 + random.nextInt(35));
+		document.put("amount", random.nextDouble() * 1000);
+		document.put("version", 0);
+		return document;
+	}
+
+	// returns false if the operation completed without throwing but the
+	// client reported a failure or returned a partial search result
+	boolean execute(Operation operation, Random random) {
+		reported.set(false);
+		boolean complete = run(operation, random);
+		return complete && !reported.get();
+	}
+
+	private boolean run(Operation operation, Random random) {
+		switch (operation) {
+		case SEARCH:
+			return !EsSearchResult.isPartial(client.search(query(random, false)));
+		case IDS:
+			SearchQueryBuilder builder = new SearchQueryBuilder();
+			builder.filter("type", SearchFilterValue.term(TYPES[random.nextInt(TYPES.length)]));
+			builder.filter("category", SearchFilterValue.term("category " + random.nextInt(CATEGORIES)));
+			client.searchIds(builder.build());
+			return true;
+		case FACETS:
+			return !EsSearchResult.isPartial(client.search(query(random, true)));
+		case INDEX:
+			int id = random.nextInt(documents);
+			client.index(Integer.toString(id), document(id, random));
+			return true;
+		case UPDATE:
+			client.update(Integer.toString(random.nextInt(documents)),
+					Collections.singletonMap("version", random.nextInt(1000)));
+			return true;
+		case REMOVE:
+			client.remove(Integer.toString(random.nextInt(documents)));
+			return true;
+		case BULK:
+			for (int i = 0; i < BATCH; i++) {
+				int next = random.nextInt(documents);
+				bulk.index(Integer.toString(next), document(next, random));
+			}
+			bulk.flush();
+			return true;
+		default:
+			return true;
+		}
+	}
+
+	private SearchQuery query(Random random, boolean facets) {
+		SearchQueryBuilder builder = new SearchQueryBuilder();
+		builder.page(1 + random.nextInt(5)).pageSize(20);
+		builder.filter("type", SearchFilterValue.term(TYPES[random.nextInt(TYPES.length)]));
+		builder.filter("category", SearchFilterValue.term(Arrays.asList("category " + random.nextInt(CATEGORIES),
+				"category " + random.nextInt(CATEGORIES), "category " + random.nextInt(CATEGORIES))));
+		if (!facets)
+			return builder.build();
+		builder.aggregation(new TermsAggregation("categories", "category"));
+		builder.aggregation(new TermsAggregation("locations", "location"));
+		builder.aggregation(new RangeAggregation("years", "year",
+				Arrays.asList(new Double[] { null, 2000d }, new Double[] { 2000d, 2010d },
+						new Double[] { 2010d, null })));
+		return builder.build();
+	}
+
+}
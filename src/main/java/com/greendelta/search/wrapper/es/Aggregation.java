@@ -3,6 +3,7 @@ package com.greendelta.search.wrapper.es;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.bucket.range.RangeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 
 import com.greendelta.search.wrapper.aggregations.RangeAggregation;
 import com.greendelta.search.wrapper.aggregations.SearchAggregation;
@@ -10,18 +11,18 @@ import com.greendelta.search.wrapper.aggregations.TermsAggregation;
 
 class Aggregation {
 
-	static AggregationBuilder builder(SearchAggregation aggregation) {
-		AggregationBuilder builder = createBuilder(aggregation);
+	static AggregationBuilder builder(SearchAggregation aggregation, Config config) {
+		AggregationBuilder builder = createBuilder(aggregation, config);
 		if (isNested(aggregation.field)) {
 			builder = nest(builder, aggregation);
 		}
 		return builder;
 	}
 
-	private static AggregationBuilder createBuilder(SearchAggregation aggregation) {
+	private static AggregationBuilder createBuilder(SearchAggregation aggregation, Config config) {
 		switch (aggregation.type) {
 		case TERM:
-			return termsBuilder((TermsAggregation) aggregation);
+			return termsBuilder((TermsAggregation) aggregation, config);
 		case RANGE:
 			return rangeBuilder((RangeAggregation) aggregation);
 		default:
@@ -29,8 +30,16 @@ class Aggregation {
 		}
 	}
 
-	private static AggregationBuilder termsBuilder(TermsAggregation aggregation) {
-		return AggregationBuilders.terms(aggregation.name).field(aggregation.field).size(Integer.MAX_VALUE);
+	private static AggregationBuilder termsBuilder(TermsAggregation aggregation, Config config) {
+		TermsAggregationBuilder builder = AggregationBuilders.terms(aggregation.name).field(aggregation.field);
+		builder.size(config.termsSize);
+		if (config.termsShardSize != null) {
+			builder.shardSize(config.termsShardSize);
+		}
+		if (config.termsExecutionHint != null) {
+			builder.executionHint(config.termsExecutionHint);
+		}
+		return builder;
 	}
 
 	private static AggregationBuilder rangeBuilder(RangeAggregation aggregation) {
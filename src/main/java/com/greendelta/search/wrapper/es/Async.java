@@ -0,0 +1,31 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.client.ElasticsearchClient;
+
+class Async {
+
+	static <T extends ActionResponse> CompletableFuture<T> execute(ActionRequestBuilder<?, T> builder) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		builder.execute(listener(future));
+		return future;
+	}
+
+	static <R extends ActionRequest, T extends ActionResponse> CompletableFuture<T> execute(
+			ElasticsearchClient client, ActionType<T> action, R request) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		client.execute(action, request, listener(future));
+		return future;
+	}
+
+	private static <T> ActionListener<T> listener(CompletableFuture<T> future) {
+		return ActionListener.wrap(future::complete, future::completeExceptionally);
+	}
+
+}
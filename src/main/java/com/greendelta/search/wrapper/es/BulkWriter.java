@@ -0,0 +1,142 @@
+package com.greendelta.search.wrapper.es;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Accumulates write requests and sends them as bulk requests once the
+ * configured number of actions or bytes is reached or the flush interval
+ * elapsed. When all concurrent bulk requests are in flight, adding further
+ * requests blocks the caller until one of them completed. Items rejected by
+ * the cluster are retried with an exponential backoff, items that still
+ * failed make the next flush throw. The written callback runs after each bulk
+ * request, before a waiting flush returns.
+ */
+class BulkWriter implements Closeable {
+
+	private final BulkProcessor processor;
+	private final Supplier<RefreshPolicy> refresh;
+	private final Supplier<Instrumentation> instrumentation;
+	private final Consumer<BulkRequest> written;
+	private final Object lock = new Object();
+	private int pending;
+	private Throwable failure;
+
+	BulkWriter(Client client, int bulkActions, long bulkBytes, long flushInterval, int concurrentRequests,
+			Supplier<RefreshPolicy> refresh, Supplier<Instrumentation> instrumentation,
+			Consumer<BulkRequest> written) {
+		this.refresh = refresh;
+		this.instrumentation = instrumentation;
+		this.written = written;
+		BulkProcessor.Builder builder = BulkProcessor.builder(client::bulk, new Listener())
+				.setBulkActions(bulkActions)
+				.setBulkSize(new ByteSizeValue(bulkBytes))
+				.setConcurrentRequests(concurrentRequests)
+				.setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(50), 8));
+		if (flushInterval > 0) {
+			builder.setFlushInterval(TimeValue.timeValueMillis(flushInterval));
+		}
+		processor = builder.build();
+	}
+
+	void add(DocWriteRequest<?> request) {
+		processor.add(request);
+	}
+
+	void add(BulkRequest request) {
+		for (DocWriteRequest<?> item : request.requests()) {
+			processor.add(item);
+		}
+	}
+
+	void flush() {
+		processor.flush();
+		synchronized (lock) {
+			while (pending > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (failure == null)
+				return;
+			Throwable t = failure;
+			failure = null;
+			throw new ElasticsearchException("Bulk request failed", t);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			processor.awaitClose(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void instrument(Instrumentation instrumentation, BulkResponse response) {
+		if (!response.hasFailures())
+			return;
+		int failures = 0;
+		for (BulkItemResponse item : response.getItems()) {
+			if (item.isFailed()) {
+				failures++;
+			}
+		}
+		instrumentation.bulkFailures(failures, response.getItems().length);
+	}
+
+	private void done(Throwable t) {
+		synchronized (lock) {
+			pending--;
+			if (t != null) {
+				failure = t;
+			}
+			lock.notifyAll();
+		}
+	}
+
+	private class Listener implements BulkProcessor.Listener {
+
+		@Override
+		public void beforeBulk(long executionId, BulkRequest request) {
+			request.setRefreshPolicy(refresh.get());
+			synchronized (lock) {
+				pending++;
+			}
+		}
+
+		@Override
+		public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+			instrument(instrumentation.get(), response);
+			written.accept(request);
+			done(response.hasFailures() ? new ElasticsearchException(response.buildFailureMessage()) : null);
+		}
+
+		@Override
+		public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+			instrumentation.get().failure("bulk", failure);
+			written.accept(request);
+			done(failure);
+		}
+
+	}
+
+}
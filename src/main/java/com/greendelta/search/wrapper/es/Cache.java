@@ -0,0 +1,94 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache with a maximum size and a time to live for its
+ * entries, collecting hit, miss and eviction counts. Values are put with the
+ * generation of the cache from before they were read, so that a value read
+ * before an invalidation does not replace it.
+ */
+class Cache<V> {
+
+	private final int maxSize;
+	private final long timeToLive;
+	private final Map<String, Entry<V>> entries;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long generation;
+
+	Cache(int maxSize, long timeToLive) {
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+				if (size() <= Cache.this.maxSize)
+					return false;
+				evictions++;
+				return true;
+			}
+
+		};
+	}
+
+	synchronized V get(String key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (timeToLive > 0 && entry.expires < System.currentTimeMillis()) {
+			entries.remove(key);
+			evictions++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	// increases with every removal, values that were read before cannot be
+	// put anymore because they may be stale
+	synchronized long generation() {
+		return generation;
+	}
+
+	synchronized void put(String key, V value, long generation) {
+		if (generation != this.generation)
+			return;
+		entries.put(key, new Entry<>(value, System.currentTimeMillis() + timeToLive));
+	}
+
+	synchronized void remove(String key) {
+		generation++;
+		entries.remove(key);
+	}
+
+	synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	synchronized CacheStats stats() {
+		return new CacheStats(hits, misses, evictions, entries.size());
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+		private final long expires;
+
+		private Entry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.greendelta.search.wrapper.es;
+
+public class CacheStats {
+
+	public final long hits;
+	public final long misses;
+	public final long evictions;
+	public final int size;
+
+	CacheStats(long hits, long misses, long evictions, int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.greendelta.search.wrapper.es;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.aggregations.TermsAggregation;
+import com.greendelta.search.wrapper.aggregations.results.AggregationResult;
+import com.greendelta.search.wrapper.aggregations.results.AggregationResultBuilder;
+import com.greendelta.search.wrapper.aggregations.results.AggregationResultEntry;
+import com.greendelta.search.wrapper.es.Search.EsRequest;
+
+/**
+ * Pages through all buckets of a terms aggregation with a composite
+ * aggregation, each page is passed on as a separate aggregation result.
+ * Composite aggregations can not be nested, so only top level fields are
+ * supported.
+ */
+class Composite {
+
+	static void run(Supplier<EsRequest> requests, SearchQuery searchQuery, TermsAggregation aggregation,
+			int pageSize, Consumer<AggregationResult> consumer) {
+		if (aggregation.field.contains("."))
+			throw new IllegalArgumentException("Nested field not supported: " + aggregation.field);
+		QueryBuilder query = Query.create(searchQuery);
+		Map<String, Object> after = null;
+		try {
+			do {
+				EsRequest request = requests.get();
+				request.setSize(0);
+				request.setTrackTotalHits(false);
+				request.setQuery(query);
+				request.addAggregation(builder(aggregation, pageSize, after));
+				CompositeAggregation composite = (CompositeAggregation) request.execute().getAggregations().get(0);
+				if (!composite.getBuckets().isEmpty()) {
+					consumer.accept(result(aggregation, composite));
+				}
+				after = composite.getBuckets().size() < pageSize ? null : composite.afterKey();
+			} while (after != null);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static CompositeAggregationBuilder builder(TermsAggregation aggregation, int pageSize,
+			Map<String, Object> after) {
+		TermsValuesSourceBuilder source = new TermsValuesSourceBuilder(aggregation.name).field(aggregation.field);
+		CompositeAggregationBuilder builder = AggregationBuilders.composite(aggregation.name,
+				Collections.singletonList(source));
+		builder.size(pageSize);
+		if (after != null) {
+			builder.aggregateAfter(after);
+		}
+		return builder;
+	}
+
+	private static AggregationResult result(TermsAggregation aggregation, CompositeAggregation composite) {
+		AggregationResultBuilder builder = new AggregationResultBuilder();
+		builder.name(aggregation.name).type(TermsAggregation.TYPE);
+		long totalCount = 0;
+		for (CompositeAggregation.Bucket bucket : composite.getBuckets()) {
+			Object key = bucket.getKey().get(aggregation.name);
+			builder.addEntry(new AggregationResultEntry(String.valueOf(key), bucket.getDocCount()));
+			totalCount += bucket.getDocCount();
+		}
+		return builder.totalCount(totalCount).build();
+	}
+
+}
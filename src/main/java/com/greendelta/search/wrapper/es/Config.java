@@ -0,0 +1,37 @@
+package com.greendelta.search.wrapper.es;
+
+/**
+ * Request settings of a client. Instances are not changed after they were
+ * handed to a request, the client replaces them with modified copies instead.
+ */
+class Config {
+
+	int termsSize = Integer.MAX_VALUE;
+	Integer termsShardSize;
+	String termsExecutionHint;
+	Integer trackTotalHitsUpTo;
+	Long searchTimeout;
+	Integer terminateAfter;
+	Long requestTimeout;
+	int multiGetChunkSize = 1000;
+	int multiGetConcurrency = 4;
+	String tiebreaker = "_id";
+	Instrumentation instrumentation = Instrumentation.NONE;
+
+	Config copy() {
+		Config copy = new Config();
+		copy.termsSize = termsSize;
+		copy.termsShardSize = termsShardSize;
+		copy.termsExecutionHint = termsExecutionHint;
+		copy.trackTotalHitsUpTo = trackTotalHitsUpTo;
+		copy.searchTimeout = searchTimeout;
+		copy.terminateAfter = terminateAfter;
+		copy.requestTimeout = requestTimeout;
+		copy.multiGetChunkSize = multiGetChunkSize;
+		copy.multiGetConcurrency = multiGetConcurrency;
+		copy.tiebreaker = tiebreaker;
+		copy.instrumentation = instrumentation;
+		return copy;
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.greendelta.search.wrapper.es;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.elasticsearch.search.SearchHit;
+
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.es.Search.EsRequest;
+import com.greendelta.search.wrapper.es.Search.EsResponse;
+
+/**
+ * Iterates over the pages of a prepared request. Paged queries yield exactly
+ * one page, unpaged queries are continued with search_after on the sort values
+ * of the last hit, which requires a unique tiebreaker as last sort field.
+ */
+class Cursor {
+
+	static final int PAGE_SIZE = 10000;
+
+	private final EsRequest request;
+	private final boolean paged;
+	private Object[] searchAfter;
+	private boolean done;
+	private int pages;
+
+	Cursor(EsRequest request, SearchQuery searchQuery) {
+		this.request = request;
+		this.paged = searchQuery.isPaged();
+	}
+
+	boolean hasNext() {
+		return !done;
+	}
+
+	EsResponse next() throws IOException {
+		if (searchAfter != null) {
+			request.setSearchAfter(searchAfter);
+		}
+		return advance(request.execute());
+	}
+
+	CompletableFuture<EsResponse> nextAsync() {
+		if (searchAfter != null) {
+			request.setSearchAfter(searchAfter);
+		}
+		return request.executeAsync().thenApply(this::advance);
+	}
+
+	EsResponse advance(EsResponse response) {
+		SearchHit[] hits = response.getHits();
+		pages++;
+		if (paged) {
+			done = true;
+		} else if (hits.length < PAGE_SIZE) {
+			done = true;
+			request.getConfig().instrumentation.pages(pages);
+		} else {
+			searchAfter = hits[hits.length - 1].getSortValues();
+		}
+		return response;
+	}
+
+	void close() {
+		done = true;
+	}
+
+}
@@ -1,44 +1,101 @@
 package com.greendelta.search.wrapper.es;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.DocWriteRequest.OpType;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.create.CreateIndexAction;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexAction;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.get.GetIndexResponse;
+import org.elasticsearch.action.admin.indices.mapping.put.PutMappingAction;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
+import org.elasticsearch.action.admin.indices.rollover.RolloverAction;
+import org.elasticsearch.action.admin.indices.rollover.RolloverRequest;
+import org.elasticsearch.action.admin.indices.rollover.RolloverResponse;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteAction;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.get.MultiGetItemResponse;
-import org.elasticsearch.action.get.MultiGetRequestBuilder;
-import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.index.IndexAction;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateAction;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
+import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 
 import com.greendelta.search.wrapper.SearchClient;
 import com.greendelta.search.wrapper.SearchQuery;
 import com.greendelta.search.wrapper.SearchResult;
+import com.greendelta.search.wrapper.aggregations.TermsAggregation;
+import com.greendelta.search.wrapper.aggregations.results.AggregationResult;
 import com.greendelta.search.wrapper.es.Search.EsRequest;
+import com.greendelta.search.wrapper.es.Search.EsResponse;
 
 public class EsClient implements SearchClient {
 
+	private static final String REFRESH_INTERVAL = "index.refresh_interval";
+	private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+	private static final String NUMBER_OF_SHARDS = "index.number_of_shards";
+	private static final String MAX_RESULT_WINDOW = "index.max_result_window";
+	// a distinct instance, documents without fields are cached as empty maps
+	private static final Map<String, Object> MISSING = Collections.unmodifiableMap(new HashMap<>());
+
 	private final Client client;
 	private final String indexName;
 	private final String indexType;
+	private volatile BulkWriter writer;
+	private volatile Refresh refresh = Refresh.IMMEDIATE;
+	private volatile boolean refreshPending;
+	private String ingestIndex;
+	private volatile Settings ingestSettings;
+	private volatile Executor executor = ForkJoinPool.commonPool();
+	private volatile Cache<EsResponse> resultCache;
+	private volatile Config config = new Config();
+	private volatile Cache<Map<String, Object>> documentCache;
+	private volatile Routing routing = Routing.NONE;
+	private volatile String[] searchIndices;
+	private volatile int shards = 1;
+	private volatile Integer replicas;
 
 	public EsClient(Client client, String indexName, String indexType) {
 		this.client = client;
@@ -48,203 +105,1206 @@ public class EsClient implements SearchClient {
 
 	@Override
 	public SearchResult<Map<String, Object>> search(SearchQuery searchQuery) {
-		try {
-			EsRequest request = new Request(client, indexName);
-			return Search.run(request, searchQuery);
-		} catch (Exception e) {
-			e.printStackTrace();
-			return new SearchResult<>();
+		EsRequest request = request();
+		return Search.run(request, searchQuery);
+	}
+
+	public SearchResult<Map<String, Object>> search(SearchQuery searchQuery, String[] includes, String[] excludes) {
+		EsRequest request = request();
+		request.setFetchSource(includes, excludes);
+		return Search.run(request, searchQuery);
+	}
+
+	public CompletableFuture<SearchResult<Map<String, Object>>> searchAsync(SearchQuery searchQuery) {
+		EsRequest request = request();
+		return Search.runAsync(request, searchQuery);
+	}
+
+	// searches only the shards of the given routing keys, separated by commas
+	public SearchResult<Map<String, Object>> search(SearchQuery searchQuery, String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.run(request, searchQuery);
+	}
+
+	public CompletableFuture<SearchResult<Map<String, Object>>> searchAsync(SearchQuery searchQuery,
+			String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.runAsync(request, searchQuery);
+	}
+
+	public PreparedSearch prepare(SearchQuery shape) {
+		return prepare(shape, null, null);
+	}
+
+	public PreparedSearch prepare(SearchQuery shape, String[] includes, String[] excludes) {
+		return new PreparedSearch(this::request, shape, includes, excludes);
+	}
+
+	public List<SearchResult<Map<String, Object>>> search(List<SearchQuery> searchQueries) {
+		return search(searchQueries, (searchQuery, e) -> config.instrumentation.failure("search", e));
+	}
+
+	public List<SearchResult<Map<String, Object>>> search(List<SearchQuery> searchQueries,
+			BiConsumer<SearchQuery, Exception> onFailure) {
+		List<Request> requests = new ArrayList<>();
+		for (int i = 0; i < searchQueries.size(); i++) {
+			requests.add(request());
 		}
+		return MultiSearch.run(client, config, requests, searchQueries, onFailure);
 	}
 
 	@Override
 	public Set<String> searchIds(SearchQuery searchQuery) {
-		EsRequest request = new Request(client, indexName);
+		EsRequest request = request();
 		return Search.ids(request, searchQuery);
 	}
 
+	public CompletableFuture<Set<String>> searchIdsAsync(SearchQuery searchQuery) {
+		EsRequest request = request();
+		return Search.idsAsync(request, searchQuery);
+	}
+
+	public Set<String> searchIds(SearchQuery searchQuery, String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.ids(request, searchQuery);
+	}
+
+	public CompletableFuture<Set<String>> searchIdsAsync(SearchQuery searchQuery, String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.idsAsync(request, searchQuery);
+	}
+
+	public SearchResult<Map<String, Object>> aggregate(SearchQuery searchQuery) {
+		return Search.aggregate(request(), searchQuery);
+	}
+
+	public CompletableFuture<SearchResult<Map<String, Object>>> aggregateAsync(SearchQuery searchQuery) {
+		return Search.aggregateAsync(request(), searchQuery);
+	}
+
+	public SearchResult<Map<String, Object>> aggregate(SearchQuery searchQuery, String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.aggregate(request, searchQuery);
+	}
+
+	public CompletableFuture<SearchResult<Map<String, Object>>> aggregateAsync(SearchQuery searchQuery,
+			String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.aggregateAsync(request, searchQuery);
+	}
+
+	public long count(SearchQuery searchQuery) {
+		return Search.count(request(), searchQuery);
+	}
+
+	public CompletableFuture<Long> countAsync(SearchQuery searchQuery) {
+		return Search.countAsync(request(), searchQuery);
+	}
+
+	public long count(SearchQuery searchQuery, String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.count(request, searchQuery);
+	}
+
+	public CompletableFuture<Long> countAsync(SearchQuery searchQuery, String routing) {
+		EsRequest request = request();
+		request.setRouting(routing);
+		return Search.countAsync(request, searchQuery);
+	}
+
+	public Stream<Map<String, Object>> stream(SearchQuery searchQuery) {
+		EsRequest request = new Request(client, searchIndices(), config);
+		return Search.stream(request, searchQuery).map(hit -> Search.data(hit, searchQuery));
+	}
+
+	public Stream<Map<String, Object>> stream(SearchQuery searchQuery, String[] includes, String[] excludes) {
+		EsRequest request = new Request(client, searchIndices(), config);
+		request.setFetchSource(includes, excludes);
+		return Search.stream(request, searchQuery).map(hit -> Search.data(hit, searchQuery));
+	}
+
+	public Stream<Map<String, Object>> stream(SearchQuery searchQuery, String routing) {
+		EsRequest request = new Request(client, searchIndices(), config);
+		request.setRouting(routing);
+		return Search.stream(request, searchQuery).map(hit -> Search.data(hit, searchQuery));
+	}
+
+	public Stream<String> streamIds(SearchQuery searchQuery) {
+		return streamIds(searchQuery, null);
+	}
+
+	public Stream<String> streamIds(SearchQuery searchQuery, String routing) {
+		EsRequest request = new Request(client, searchIndices(), config);
+		request.setFetchSource(false);
+		request.setRouting(routing);
+		return Search.stream(request, searchQuery).map(SearchHit::getId);
+	}
+
+	public void project(SearchQuery searchQuery, String[] fields, Consumer<Object[]> consumer) {
+		project(searchQuery, null, new Projection(fields, false), consumer);
+	}
+
+	public void projectDocValues(SearchQuery searchQuery, String[] fields, Consumer<Object[]> consumer) {
+		project(searchQuery, null, new Projection(fields, true), consumer);
+	}
+
+	public void project(SearchQuery searchQuery, String routing, String[] fields, Consumer<Object[]> consumer) {
+		project(searchQuery, routing, new Projection(fields, false), consumer);
+	}
+
+	public void projectDocValues(SearchQuery searchQuery, String routing, String[] fields,
+			Consumer<Object[]> consumer) {
+		project(searchQuery, routing, new Projection(fields, true), consumer);
+	}
+
+	private void project(SearchQuery searchQuery, String routing, Projection projection,
+			Consumer<Object[]> consumer) {
+		EsRequest request = new Request(client, searchIndices(), config);
+		request.setRouting(routing);
+		try {
+			Search.project(request, searchQuery, projection, consumer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public SearchResult<Map<String, Object>> searchParallel(SearchQuery searchQuery, int slices) {
+		if (searchQuery.isPaged())
+			return search(searchQuery);
+		Config config = this.config;
+		return Slices.run(config, () -> new Request(client, searchIndices(), config), searchQuery, slices, executor);
+	}
+
+	public Set<String> searchIdsParallel(SearchQuery searchQuery, int slices) {
+		if (searchQuery.isPaged())
+			return searchIds(searchQuery);
+		Config config = this.config;
+		return Slices.ids(config, () -> new Request(client, searchIndices(), config), searchQuery, slices, executor);
+	}
+
+	public void streamAggregation(SearchQuery searchQuery, TermsAggregation aggregation, int pageSize,
+			Consumer<AggregationResult> consumer) {
+		Composite.run(() -> new Request(client, searchIndices(), config), searchQuery, aggregation, pageSize, consumer);
+	}
+
+	public synchronized void setTermsAggregation(int size, Integer shardSize, String executionHint) {
+		Config config = this.config.copy();
+		config.termsSize = size;
+		config.termsShardSize = shardSize;
+		config.termsExecutionHint = executionHint;
+		this.config = config;
+	}
+
+	public void setTrackTotalHits(boolean track) {
+		setTrackTotalHitsUpTo(track ? Integer.MAX_VALUE : -1);
+	}
+
+	// applies to paged searches, unpaged searches count the collected hits
+	public synchronized void setTrackTotalHitsUpTo(int limit) {
+		Config config = this.config.copy();
+		config.trackTotalHitsUpTo = limit;
+		this.config = config;
+	}
+
+	// the time in milliseconds that shards search before they return the hits
+	// collected so far, results are then marked as timed out
+	public synchronized void setSearchTimeout(long timeout) {
+		Config config = this.config.copy();
+		config.searchTimeout = timeout > 0 ? timeout : null;
+		this.config = config;
+	}
+
+	// applies to paged searches, shards stop collecting after the given number
+	// of hits and the total count becomes a lower bound
+	public synchronized void setTerminateAfter(int maxHits) {
+		Config config = this.config.copy();
+		config.terminateAfter = maxHits > 0 ? maxHits : null;
+		this.config = config;
+	}
+
+	// the time in milliseconds that a search waits for all of its pages, an
+	// expired search returns the pages received before
+	public synchronized void setRequestTimeout(long timeout) {
+		Config config = this.config.copy();
+		config.requestTimeout = timeout > 0 ? timeout : null;
+		this.config = config;
+	}
+
+	// the last sort field of unpaged searches, which are paged with
+	// search_after; sorting by _id loads the ids of all documents into the
+	// fielddata on the heap, a unique keyword field with doc values of the
+	// indexed documents avoids this
+	public synchronized void setTiebreaker(String field) {
+		Config config = this.config.copy();
+		config.tiebreaker = field != null ? field : "_id";
+		this.config = config;
+	}
+
+	public synchronized void setInstrumentation(Instrumentation instrumentation) {
+		Config config = this.config.copy();
+		config.instrumentation = instrumentation != null ? instrumentation : Instrumentation.NONE;
+		this.config = config;
+	}
+
+	// searches go to the given indices or aliases instead of the index of the
+	// client, null restores this; writes and gets still use the index
+	public void setSearchIndices(String... indices) {
+		searchIndices = indices != null && indices.length > 0 ? indices.clone() : null;
+	}
+
+	public void setRouting(Routing routing) {
+		this.routing = routing != null ? routing : Routing.NONE;
+	}
+
+	// applies to indices that are created by the client, unless the index
+	// settings define the counts; a negative replica count keeps the default
+	public void setShards(int shards, int replicas) {
+		this.shards = shards;
+		this.replicas = replicas >= 0 ? replicas : null;
+	}
+
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public void enableResultCache(int maxSize, long timeToLive) {
+		resultCache = new Cache<>(maxSize, timeToLive);
+	}
+
+	public void disableResultCache() {
+		resultCache = null;
+	}
+
+	public CacheStats getResultCacheStats() {
+		Cache<EsResponse> cache = resultCache;
+		if (cache == null)
+			return null;
+		return cache.stats();
+	}
+
+	public void enableDocumentCache(int maxSize, long timeToLive) {
+		documentCache = new Cache<>(maxSize, timeToLive);
+	}
+
+	public void disableDocumentCache() {
+		documentCache = null;
+	}
+
+	public CacheStats getDocumentCacheStats() {
+		Cache<Map<String, Object>> cache = documentCache;
+		if (cache == null)
+			return null;
+		return cache.stats();
+	}
+
+	private Request request() {
+		return new Request(client, searchIndices(), config, resultCache);
+	}
+
+	private String[] searchIndices() {
+		String[] indices = searchIndices;
+		return indices != null ? indices : new String[] { indexName };
+	}
+
+	private void invalidate() {
+		clear(resultCache);
+		clear(documentCache);
+	}
+
+	private static void clear(Cache<?> cache) {
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
 	@Override
 	public void create(Map<String, String> settings) {
 		boolean exists = client.admin().indices().prepareExists(indexName).execute().actionGet().isExists();
 		if (exists)
 			return;
-		String indexSettings = settings.get("config");
+		client.admin().indices().create(createRequest(settings)).actionGet();
+		client.admin().indices().putMapping(mappingRequest(settings.get("mapping"))).actionGet();
+		invalidate();
+	}
+
+	public CompletableFuture<Void> createAsync(Map<String, String> settings) {
+		IndicesAdminClient indices = client.admin().indices();
+		return Async.execute(indices.prepareExists(indexName)).thenCompose(response -> {
+			if (response.isExists())
+				return CompletableFuture.completedFuture(null);
+			return Async.execute(indices, CreateIndexAction.INSTANCE, createRequest(settings))
+					.thenCompose(created -> Async.execute(indices, PutMappingAction.INSTANCE,
+							mappingRequest(settings.get("mapping"))))
+					.thenRun(this::invalidate);
+		});
+	}
+
+	private CreateIndexRequest createRequest(Map<String, String> settings) {
 		CreateIndexRequest request = new CreateIndexRequest(indexName);
-		request.settings(
-				Settings.builder().loadFromSource(indexSettings, XContentType.JSON).put("number_of_shards", 1));
-		client.admin().indices().create(request).actionGet();
-		String mapping = settings.get("mapping");
+		request.settings(indexSettings(settings));
+		return request;
+	}
+
+	// shard and replica counts in the index settings take precedence
+	private Settings.Builder indexSettings(Map<String, String> settings) {
+		Settings.Builder builder = Settings.builder().loadFromSource(settings.get("config"), XContentType.JSON)
+				.normalizePrefix("index.");
+		if (builder.get(NUMBER_OF_SHARDS) == null) {
+			builder.put(NUMBER_OF_SHARDS, shards);
+		}
+		Integer replicas = this.replicas;
+		if (replicas != null && builder.get(NUMBER_OF_REPLICAS) == null) {
+			builder.put(NUMBER_OF_REPLICAS, replicas);
+		}
+		return builder;
+	}
+
+	// creates the first index of a rolling index, the client index name
+	// becomes the alias that writes go to and that searches all of its
+	// indices; gets only work as long as the alias has a single index and
+	// updates and removals only reach documents of the current index
+	public void createRollover(Map<String, String> settings) {
+		boolean exists = client.admin().indices().prepareExists(indexName).execute().actionGet().isExists();
+		if (exists)
+			return;
+		client.admin().indices().create(rolloverRequest(settings)).actionGet();
+		invalidate();
+	}
+
+	public CompletableFuture<Void> createRolloverAsync(Map<String, String> settings) {
+		IndicesAdminClient indices = client.admin().indices();
+		return Async.execute(indices.prepareExists(indexName)).thenCompose(response -> {
+			if (response.isExists())
+				return CompletableFuture.completedFuture(null);
+			return Async.execute(indices, CreateIndexAction.INSTANCE, rolloverRequest(settings))
+					.thenRun(this::invalidate);
+		});
+	}
+
+	private CreateIndexRequest rolloverRequest(Map<String, String> settings) {
+		CreateIndexRequest request = new CreateIndexRequest(indexName + "-000001");
+		request.settings(indexSettings(settings));
+		request.mapping(indexType, settings.get("mapping"), XContentType.JSON);
+		request.alias(new Alias(indexName).writeIndex(true));
+		return request;
+	}
+
+	// starts a new index for writes if the current one has at least maxDocs
+	// documents or is older than maxAge milliseconds, conditions that are not
+	// positive are ignored; returns true if a new index was created
+	public boolean rollover(Map<String, String> settings, long maxDocs, long maxAge) {
+		return client.admin().indices().rolloverIndex(rolloverRequest(settings, maxDocs, maxAge)).actionGet()
+				.isRolledOver();
+	}
+
+	public CompletableFuture<Boolean> rolloverAsync(Map<String, String> settings, long maxDocs, long maxAge) {
+		return Async.execute(client.admin().indices(), RolloverAction.INSTANCE,
+				rolloverRequest(settings, maxDocs, maxAge)).thenApply(RolloverResponse::isRolledOver);
+	}
+
+	private RolloverRequest rolloverRequest(Map<String, String> settings, long maxDocs, long maxAge) {
+		RolloverRequest request = new RolloverRequest(indexName, null);
+		if (maxDocs > 0) {
+			request.addMaxIndexDocsCondition(maxDocs);
+		}
+		if (maxAge > 0) {
+			request.addMaxIndexAgeCondition(TimeValue.timeValueMillis(maxAge));
+		}
+		request.getCreateIndexRequest().settings(indexSettings(settings));
+		request.getCreateIndexRequest().mapping(indexType, settings.get("mapping"), XContentType.JSON);
+		return request;
+	}
+
+	private PutMappingRequest mappingRequest(String mapping) {
 		PutMappingRequest mappingRequest = org.elasticsearch.client.Requests.putMappingRequest(indexName);
 		mappingRequest.type(indexType).source(mapping, XContentType.JSON);
-		client.admin().indices().putMapping(mappingRequest).actionGet();
+		return mappingRequest;
 	}
 
 	@Override
 	public void index(String id, Map<String, Object> content) {
-		client.index(indexRequest(id, content, true)).actionGet();
+		index(id, content, refresh);
+	}
+
+	public void index(String id, Map<String, Object> content, Refresh refresh) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(indexRequest(id, content, null));
+			queued(refresh);
+		} else {
+			client.index(indexRequest(id, content, refresh)).actionGet();
+			written(refresh, id);
+		}
+	}
+
+	public CompletableFuture<Void> indexAsync(String id, Map<String, Object> content) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(indexRequest(id, content, null));
+			queued(refresh);
+			return CompletableFuture.completedFuture(null);
+		}
+		return Async.execute(client, IndexAction.INSTANCE, indexRequest(id, content, refresh))
+				.thenRun(() -> written(refresh, id));
 	}
 
 	@Override
 	public void index(Map<String, Map<String, Object>> contentsById) {
+		index(contentsById, refresh);
+	}
+
+	public void index(Map<String, Map<String, Object>> contentsById, Refresh refresh) {
+		bulk(indexBulk(contentsById, refresh), refresh);
+	}
+
+	public CompletableFuture<Void> indexAsync(Map<String, Map<String, Object>> contentsById) {
+		return bulkAsync(indexBulk(contentsById, refresh), refresh);
+	}
+
+	private BulkRequest indexBulk(Map<String, Map<String, Object>> contentsById, Refresh refresh) {
 		BulkRequestBuilder builder = client.prepareBulk();
 		for (String id : contentsById.keySet()) {
 			Map<String, Object> content = contentsById.get(id);
-			builder.add(indexRequest(id, content, false));
+			builder.add(indexRequest(id, content, null));
 		}
-		client.bulk(builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).request()).actionGet();
+		return builder.setRefreshPolicy(policy(refresh)).request();
 	}
 
-	private IndexRequest indexRequest(String id, Map<String, Object> content, boolean refresh) {
+	private IndexRequest indexRequest(String id, Map<String, Object> content, Refresh refresh) {
 		IndexRequestBuilder builder = client.prepareIndex(indexName, indexType, id);
-		builder.setOpType(OpType.INDEX).setSource(content);
-		if (refresh) {
-			builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+		builder.setOpType(OpType.INDEX).setSource(content).setRouting(routing.key(id, content));
+		if (refresh != null) {
+			builder.setRefreshPolicy(policy(refresh));
 		}
 		return builder.request();
 	}
 
 	@Override
 	public void update(String id, Map<String, Object> update) {
-		client.update(updateRequest(id, update, true)).actionGet();
+		update(id, update, refresh);
+	}
+
+	public void update(String id, Map<String, Object> update, Refresh refresh) {
+		updateRouted(id, key(id), update, refresh);
+	}
+
+	public CompletableFuture<Void> updateAsync(String id, Map<String, Object> update) {
+		return keyAsync(id).thenCompose(key -> updateRoutedAsync(id, key, update));
+	}
+
+	// updates a document that was indexed with the given routing key, which
+	// saves the lookup of the key when documents are routed by a field
+	public void updateRouted(String id, String routing, Map<String, Object> update) {
+		updateRouted(id, routing, update, refresh);
+	}
+
+	public void updateRouted(String id, String routing, Map<String, Object> update, Refresh refresh) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(updateRequest(id, routing, update, null));
+			queued(refresh);
+		} else {
+			client.update(updateRequest(id, routing, update, refresh)).actionGet();
+			written(refresh, id);
+		}
+	}
+
+	public CompletableFuture<Void> updateRoutedAsync(String id, String routing, Map<String, Object> update) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(updateRequest(id, routing, update, null));
+			queued(refresh);
+			return CompletableFuture.completedFuture(null);
+		}
+		return Async.execute(client, UpdateAction.INSTANCE, updateRequest(id, routing, update, refresh))
+				.thenRun(() -> written(refresh, id));
 	}
 
 	@Override
 	public void update(String id, String script, Map<String, Object> parameters) {
-		client.update(updateRequest(id, script, parameters, true)).actionGet();
+		update(id, script, parameters, refresh);
+	}
+
+	public void update(String id, String script, Map<String, Object> parameters, Refresh refresh) {
+		String key = key(id);
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(updateRequest(id, key, script, parameters, null));
+			queued(refresh);
+		} else {
+			client.update(updateRequest(id, key, script, parameters, refresh)).actionGet();
+			written(refresh, id);
+		}
+	}
+
+	public CompletableFuture<Void> updateAsync(String id, String script, Map<String, Object> parameters) {
+		return keyAsync(id).thenCompose(key -> {
+			BulkWriter writer = this.writer;
+			if (writer != null) {
+				writer.add(updateRequest(id, key, script, parameters, null));
+				queued(refresh);
+				return CompletableFuture.completedFuture(null);
+			}
+			return Async.execute(client, UpdateAction.INSTANCE, updateRequest(id, key, script, parameters, refresh))
+					.thenRun(() -> written(refresh, id));
+		});
 	}
 
 	@Override
 	public void update(Set<String> ids, Map<String, Object> update) {
+		update(ids, update, refresh);
+	}
+
+	public void update(Set<String> ids, Map<String, Object> update, Refresh refresh) {
+		bulk(updateBulk(ids, update, keys(ids), refresh), refresh);
+	}
+
+	public CompletableFuture<Void> updateAsync(Set<String> ids, Map<String, Object> update) {
+		return keysAsync(ids).thenCompose(keys -> bulkAsync(updateBulk(ids, update, keys, refresh), refresh));
+	}
+
+	private BulkRequest updateBulk(Set<String> ids, Map<String, Object> update, Map<String, String> keys,
+			Refresh refresh) {
 		BulkRequestBuilder builder = client.prepareBulk();
 		for (String id : ids) {
-			builder.add(updateRequest(id, update, false));
+			builder.add(updateRequest(id, keys.get(id), update, null));
 		}
-		client.bulk(builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).request()).actionGet();
+		return builder.setRefreshPolicy(policy(refresh)).request();
 	}
 
 	@Override
 	public void update(Set<String> ids, String script, Map<String, Object> parameters) {
+		update(ids, script, parameters, refresh);
+	}
+
+	public void update(Set<String> ids, String script, Map<String, Object> parameters, Refresh refresh) {
+		bulk(updateBulk(ids, script, parameters, keys(ids), refresh), refresh);
+	}
+
+	public CompletableFuture<Void> updateAsync(Set<String> ids, String script, Map<String, Object> parameters) {
+		return keysAsync(ids)
+				.thenCompose(keys -> bulkAsync(updateBulk(ids, script, parameters, keys, refresh), refresh));
+	}
+
+	private BulkRequest updateBulk(Set<String> ids, String script, Map<String, Object> parameters,
+			Map<String, String> keys, Refresh refresh) {
 		BulkRequestBuilder builder = client.prepareBulk();
 		for (String id : ids) {
-			builder.add(updateRequest(id, script, parameters, false));
+			builder.add(updateRequest(id, keys.get(id), script, parameters, null));
 		}
-		client.bulk(builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).request()).actionGet();
+		return builder.setRefreshPolicy(policy(refresh)).request();
 	}
 
 	@Override
 	public void update(Map<String, Map<String, Object>> updatesById) {
+		update(updatesById, refresh);
+	}
+
+	public void update(Map<String, Map<String, Object>> updatesById, Refresh refresh) {
+		bulk(updateBulk(updatesById, keys(updatesById.keySet()), refresh), refresh);
+	}
+
+	public CompletableFuture<Void> updateAsync(Map<String, Map<String, Object>> updatesById) {
+		return keysAsync(updatesById.keySet())
+				.thenCompose(keys -> bulkAsync(updateBulk(updatesById, keys, refresh), refresh));
+	}
+
+	private BulkRequest updateBulk(Map<String, Map<String, Object>> updatesById, Map<String, String> keys,
+			Refresh refresh) {
 		BulkRequestBuilder builder = client.prepareBulk();
 		for (String id : updatesById.keySet()) {
 			Map<String, Object> update = updatesById.get(id);
-			builder.add(updateRequest(id, update, false));
+			builder.add(updateRequest(id, keys.get(id), update, null));
 		}
-		client.bulk(builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).request()).actionGet();
+		return builder.setRefreshPolicy(policy(refresh)).request();
 	}
 
-	private UpdateRequest updateRequest(String id, Map<String, Object> content, boolean refresh) {
-		UpdateRequestBuilder builder = client.prepareUpdate(indexName, indexType, id);
+	private UpdateRequest updateRequest(String id, String key, Map<String, Object> content, Refresh refresh) {
+		UpdateRequestBuilder builder = client.prepareUpdate(indexName, indexType, id).setRouting(key);
 		builder.setDoc(content);
-		if (refresh) {
-			builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+		if (refresh != null) {
+			builder.setRefreshPolicy(policy(refresh));
 		}
 		return builder.request();
 	}
 
-	private UpdateRequest updateRequest(String id, String script, Map<String, Object> parameters, boolean refresh) {
-		UpdateRequestBuilder builder = client.prepareUpdate(indexName, indexType, id);
+	private UpdateRequest updateRequest(String id, String key, String script, Map<String, Object> parameters,
+			Refresh refresh) {
+		UpdateRequestBuilder builder = client.prepareUpdate(indexName, indexType, id).setRouting(key);
 		builder.setScript(new Script(ScriptType.INLINE, "painless", script, parameters));
-		if (refresh) {
-			builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+		if (refresh != null) {
+			builder.setRefreshPolicy(policy(refresh));
 		}
 		return builder.request();
 	}
 
 	@Override
 	public void remove(String id) {
-		client.delete(deleteRequest(id, true)).actionGet();
+		remove(id, refresh);
+	}
+
+	public void remove(String id, Refresh refresh) {
+		removeRouted(id, key(id), refresh);
+	}
+
+	public CompletableFuture<Void> removeAsync(String id) {
+		return keyAsync(id).thenCompose(key -> removeRoutedAsync(id, key));
+	}
+
+	// removes a document that was indexed with the given routing key, which
+	// saves the lookup of the key when documents are routed by a field
+	public void removeRouted(String id, String routing) {
+		removeRouted(id, routing, refresh);
+	}
+
+	public void removeRouted(String id, String routing, Refresh refresh) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(deleteRequest(id, routing, null));
+			queued(refresh);
+		} else {
+			client.delete(deleteRequest(id, routing, refresh)).actionGet();
+			written(refresh, id);
+		}
+	}
+
+	public CompletableFuture<Void> removeRoutedAsync(String id, String routing) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(deleteRequest(id, routing, null));
+			queued(refresh);
+			return CompletableFuture.completedFuture(null);
+		}
+		return Async.execute(client, DeleteAction.INSTANCE, deleteRequest(id, routing, refresh))
+				.thenRun(() -> written(refresh, id));
 	}
 
 	@Override
 	public void remove(Set<String> ids) {
+		remove(ids, refresh);
+	}
+
+	public void remove(Set<String> ids, Refresh refresh) {
+		bulk(removeBulk(ids, keys(ids), refresh), refresh);
+	}
+
+	public CompletableFuture<Void> removeAsync(Set<String> ids) {
+		return keysAsync(ids).thenCompose(keys -> bulkAsync(removeBulk(ids, keys, refresh), refresh));
+	}
+
+	private BulkRequest removeBulk(Set<String> ids, Map<String, String> keys, Refresh refresh) {
 		BulkRequestBuilder bulk = client.prepareBulk();
 		for (String id : ids) {
-			bulk.add(deleteRequest(id, false));
+			bulk.add(deleteRequest(id, keys.get(id), null));
 		}
-		client.bulk(bulk.setRefreshPolicy(RefreshPolicy.IMMEDIATE).request()).actionGet();
+		return bulk.setRefreshPolicy(policy(refresh)).request();
 	}
 
-	private DeleteRequest deleteRequest(String id, boolean refresh) {
-		DeleteRequestBuilder builder = client.prepareDelete(indexName, indexType, id);
-		if (refresh) {
-			builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+	private DeleteRequest deleteRequest(String id, String key, Refresh refresh) {
+		DeleteRequestBuilder builder = client.prepareDelete(indexName, indexType, id).setRouting(key);
+		if (refresh != null) {
+			builder.setRefreshPolicy(policy(refresh));
 		}
 		return builder.request();
 	}
 
+	private void bulk(BulkRequest request, Refresh refresh) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(request);
+			queued(refresh);
+		} else {
+			BulkWriter.instrument(config.instrumentation, client.bulk(request).actionGet());
+			written(refresh, request);
+		}
+	}
+
+	private CompletableFuture<Void> bulkAsync(BulkRequest request, Refresh refresh) {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.add(request);
+			queued(refresh);
+			return CompletableFuture.completedFuture(null);
+		}
+		return Async.execute(client, BulkAction.INSTANCE, request).thenAccept(response -> {
+			BulkWriter.instrument(config.instrumentation, response);
+			written(refresh, request);
+		});
+	}
+
+	private void written(Refresh refresh, String id) {
+		evict(id);
+		written(refresh);
+	}
+
+	private void written(Refresh refresh, BulkRequest request) {
+		evict(request);
+		queued(refresh);
+	}
+
+	// called by the bulk writer after a bulk request ran
+	private void evict(BulkRequest request) {
+		for (DocWriteRequest<?> item : request.requests()) {
+			evict(item.id());
+		}
+		clear(resultCache);
+	}
+
+	private void evict(String id) {
+		Cache<Map<String, Object>> cache = documentCache;
+		if (cache != null) {
+			cache.remove(id);
+		}
+	}
+
+	private void written(Refresh refresh) {
+		clear(resultCache);
+		queued(refresh);
+	}
+
+	// writes added to the bulk writer invalidate the caches when the bulk
+	// request ran, reads before that still see the previous state
+	private void queued(Refresh refresh) {
+		if (refresh == Refresh.EXPLICIT) {
+			refreshPending = true;
+		}
+	}
+
+	public void setRefresh(Refresh refresh) {
+		this.refresh = refresh;
+	}
+
+	public synchronized void startBulkWriter(int bulkActions, long bulkBytes, long flushInterval,
+			int concurrentRequests) {
+		stopBulkWriter();
+		writer = new BulkWriter(client, bulkActions, bulkBytes, flushInterval, concurrentRequests,
+				() -> policy(refresh), () -> config.instrumentation, this::evict);
+	}
+
+	// writes do not refresh during an ingest, waiting for a refresh would
+	// block while the refresh interval is disabled; the index is refreshed
+	// when the ingest stops
+	private RefreshPolicy policy(Refresh refresh) {
+		return ingestSettings != null ? RefreshPolicy.NONE : refresh.policy();
+	}
+
+	public void flush() {
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.flush();
+		}
+		invalidate();
+		if (refreshPending) {
+			refreshPending = false;
+			client.admin().indices().prepareRefresh(indexName).execute().actionGet();
+		}
+	}
+
+	public synchronized void stopBulkWriter() {
+		BulkWriter current = writer;
+		if (current == null)
+			return;
+		writer = null;
+		try {
+			current.flush();
+		} finally {
+			current.close();
+		}
+	}
+
+	// applies to the current write index, a rollover during the ingest starts
+	// a new index with the regular settings
+	public void startBulkIngest() {
+		if (ingestSettings != null)
+			return;
+		GetIndexResponse response = client.admin().indices().prepareGetIndex().addIndices(indexName).execute()
+				.actionGet();
+		String index = writeIndex(response);
+		Settings.Builder previous = Settings.builder();
+		for (String key : new String[] { REFRESH_INTERVAL, NUMBER_OF_REPLICAS }) {
+			String value = response.getSetting(index, key);
+			if (value == null) {
+				previous.putNull(key);
+			} else {
+				previous.put(key, value);
+			}
+		}
+		client.admin().indices().prepareUpdateSettings(index)
+				.setSettings(Settings.builder().put(REFRESH_INTERVAL, "-1").put(NUMBER_OF_REPLICAS, 0))
+				.execute().actionGet();
+		ingestIndex = index;
+		ingestSettings = previous.build();
+	}
+
+	public void stopBulkIngest() {
+		if (ingestSettings == null)
+			return;
+		BulkWriter writer = this.writer;
+		if (writer != null) {
+			writer.flush();
+		}
+		client.admin().indices().prepareUpdateSettings(ingestIndex).setSettings(ingestSettings).execute()
+				.actionGet();
+		ingestIndex = null;
+		ingestSettings = null;
+		refreshPending = false;
+		client.admin().indices().prepareRefresh(indexName).execute().actionGet();
+	}
+
 	@Override
 	public boolean has(String id) {
-		GetRequestBuilder builder = client.prepareGet(indexName, indexType, id);
+		Map<String, Object> cached = cached(id);
+		if (cached != null)
+			return cached != MISSING;
+		long generation = generation();
+		GetRequestBuilder builder = prepareGet(id, key(id)).setFetchSource(false);
 		GetResponse response = client.get(builder.request()).actionGet();
-		if (response == null)
+		return exists(id, response, generation);
+	}
+
+	public CompletableFuture<Boolean> hasAsync(String id) {
+		Map<String, Object> cached = cached(id);
+		if (cached != null)
+			return CompletableFuture.completedFuture(cached != MISSING);
+		long generation = generation();
+		return keyAsync(id).thenCompose(key -> Async.execute(prepareGet(id, key).setFetchSource(false)))
+				.thenApply(response -> exists(id, response, generation));
+	}
+
+	private GetRequestBuilder prepareGet(String id, String key) {
+		return client.prepareGet(indexName, indexType, id).setRouting(key);
+	}
+
+	private boolean exists(String id, GetResponse response, long generation) {
+		if (response == null || !response.isExists()) {
+			cache(id, MISSING, generation);
 			return false;
-		return response.isExists();
+		}
+		return true;
 	}
 
 	@Override
 	public Map<String, Object> get(String id) {
-		GetRequestBuilder builder = client.prepareGet(indexName, indexType, id);
-		GetResponse response = client.get(builder.request()).actionGet();
-		if (response == null)
+		Map<String, Object> cached = cached(id);
+		if (cached != null)
+			return document(cached);
+		long generation = generation();
+		return fetch(id, key(id), generation);
+	}
+
+	public CompletableFuture<Map<String, Object>> getAsync(String id) {
+		Map<String, Object> cached = cached(id);
+		if (cached != null)
+			return CompletableFuture.completedFuture(document(cached));
+		long generation = generation();
+		return keyAsync(id).thenCompose(key -> fetchAsync(id, key, generation));
+	}
+
+	// gets a document that was indexed with the given routing key, which
+	// saves the lookup of the key when documents are routed by a field
+	public Map<String, Object> getRouted(String id, String routing) {
+		Map<String, Object> cached = cached(id);
+		if (cached != null)
+			return document(cached);
+		return fetch(id, routing, generation());
+	}
+
+	public CompletableFuture<Map<String, Object>> getRoutedAsync(String id, String routing) {
+		Map<String, Object> cached = cached(id);
+		if (cached != null)
+			return CompletableFuture.completedFuture(document(cached));
+		return fetchAsync(id, routing, generation());
+	}
+
+	private Map<String, Object> fetch(String id, String key, long generation) {
+		GetResponse response = client.get(prepareGet(id, key).request()).actionGet();
+		return source(id, response, generation);
+	}
+
+	private CompletableFuture<Map<String, Object>> fetchAsync(String id, String key, long generation) {
+		return Async.execute(prepareGet(id, key)).thenApply(response -> source(id, response, generation));
+	}
+
+	private Map<String, Object> source(String id, GetResponse response, long generation) {
+		if (response == null || !response.isExists()) {
+			cache(id, MISSING, generation);
 			return null;
+		}
 		Map<String, Object> source = response.getSource();
-		if (source == null || source.isEmpty())
+		if (source == null)
 			return null;
-		return source;
+		cache(id, source, generation);
+		return document(source);
+	}
+
+	// documents without fields are returned as null like missing ones, others
+	// are copied so that callers cannot change the cached document
+	private static Map<String, Object> document(Map<String, Object> source) {
+		if (source == MISSING || source.isEmpty())
+			return null;
+		return copy(source);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T copy(T value) {
+		if (value instanceof Map) {
+			Map<Object, Object> copy = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), copy(entry.getValue()));
+			}
+			return (T) copy;
+		}
+		if (value instanceof List) {
+			List<Object> copy = new ArrayList<>();
+			for (Object item : (List<?>) value) {
+				copy.add(copy(item));
+			}
+			return (T) copy;
+		}
+		return value;
+	}
+
+	private Map<String, Object> cached(String id) {
+		Cache<Map<String, Object>> cache = documentCache;
+		if (cache == null)
+			return null;
+		return cache.get(id);
+	}
+
+	// read before the document is requested, see Cache
+	private long generation() {
+		Cache<Map<String, Object>> cache = documentCache;
+		return cache != null ? cache.generation() : 0;
+	}
+
+	private void cache(String id, Map<String, Object> source, long generation) {
+		Cache<Map<String, Object>> cache = documentCache;
+		if (cache != null) {
+			cache.put(id, source, generation);
+		}
 	}
 
 	@Override
 	public List<Map<String, Object>> get(Set<String> ids) {
-		MultiGetRequestBuilder builder = client.prepareMultiGet();
-		builder.add(indexName, indexType, ids);
-		MultiGetResponse response = client.multiGet(builder.request()).actionGet();
-		if (response == null)
-			return null;
 		List<Map<String, Object>> results = new ArrayList<>();
-		Iterator<MultiGetItemResponse> it = response.iterator();
-		while (it.hasNext()) {
-			GetResponse resp = it.next().getResponse();
-			if (resp == null)
-				continue;
-			Map<String, Object> source = resp.getSource();
-			if (source == null || source.isEmpty())
-				continue;
-			results.add(source);
-		}
+		get(ids, null, null, true, (id, source) -> results.add(source));
 		return results;
 	}
 
+	public CompletableFuture<List<Map<String, Object>>> getAsync(Set<String> ids) {
+		List<Map<String, Object>> results = new ArrayList<>();
+		return getAsync(ids, null, null, true, (id, source) -> results.add(source)).thenApply(v -> results);
+	}
+
+	public void get(Collection<String> ids, String[] includes, String[] excludes, boolean realtime,
+			BiConsumer<String, Map<String, Object>> consumer) {
+		Config config = this.config;
+		List<MultiGetRequest> requests = multiGetRequests(ids, keys(ids), includes, excludes, realtime, config);
+		MultiGet.run(client, requests, config.multiGetConcurrency, consumer);
+	}
+
+	public CompletableFuture<Void> getAsync(Collection<String> ids, String[] includes, String[] excludes,
+			boolean realtime, BiConsumer<String, Map<String, Object>> consumer) {
+		Config config = this.config;
+		return keysAsync(ids).thenCompose(keys -> MultiGet.runAsync(client,
+				multiGetRequests(ids, keys, includes, excludes, realtime, config), config.multiGetConcurrency,
+				consumer));
+	}
+
+	private List<MultiGetRequest> multiGetRequests(Collection<String> ids, Map<String, String> keys,
+			String[] includes, String[] excludes, boolean realtime, Config config) {
+		FetchSourceContext source = includes != null || excludes != null
+				? new FetchSourceContext(true, includes, excludes)
+				: null;
+		List<MultiGetRequest> requests = new ArrayList<>();
+		MultiGetRequest request = null;
+		for (String id : ids) {
+			if (request == null || request.getItems().size() == config.multiGetChunkSize) {
+				request = new MultiGetRequest().realtime(realtime);
+				requests.add(request);
+			}
+			request.add(new MultiGetRequest.Item(indexName, id).routing(keys.get(id))
+					.fetchSourceContext(source));
+		}
+		return requests;
+	}
+
+	// the routing key of a document that is only known by its id
+	private String key(String id) {
+		return keys(Collections.singleton(id)).get(id);
+	}
+
+	private CompletableFuture<String> keyAsync(String id) {
+		return keysAsync(Collections.singleton(id)).thenApply(keys -> keys.get(id));
+	}
+
+	// the keys of documents that are routed by a field are looked up with
+	// searches over all shards, ids that are not found get no key
+	private Map<String, String> keys(Collection<String> ids) {
+		Routing routing = this.routing;
+		if (routing.isIdRouted())
+			return idKeys(routing, ids);
+		Map<String, String> keys = new HashMap<>();
+		for (List<String> chunk : lookupChunks(ids)) {
+			readKeys(client.search(lookupRequest(chunk)).actionGet(), keys);
+		}
+		return keys;
+	}
+
+	private CompletableFuture<Map<String, String>> keysAsync(Collection<String> ids) {
+		Routing routing = this.routing;
+		if (routing.isIdRouted())
+			return CompletableFuture.completedFuture(idKeys(routing, ids));
+		Map<String, String> keys = new ConcurrentHashMap<>();
+		List<CompletableFuture<Void>> lookups = new ArrayList<>();
+		for (List<String> chunk : lookupChunks(ids)) {
+			lookups.add(Async.execute(client, SearchAction.INSTANCE, lookupRequest(chunk))
+					.thenAccept(response -> readKeys(response, keys)));
+		}
+		return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[lookups.size()]))
+				.thenApply(v -> keys);
+	}
+
+	private static Map<String, String> idKeys(Routing routing, Collection<String> ids) {
+		Map<String, String> keys = new HashMap<>();
+		for (String id : ids) {
+			keys.put(id, routing.key(id, null));
+		}
+		return keys;
+	}
+
+	private List<List<String>> lookupChunks(Collection<String> ids) {
+		int size = Math.min(config.multiGetChunkSize, Cursor.PAGE_SIZE);
+		List<List<String>> chunks = new ArrayList<>();
+		List<String> chunk = null;
+		for (String id : ids) {
+			if (chunk == null || chunk.size() == size) {
+				chunk = new ArrayList<>();
+				chunks.add(chunk);
+			}
+			chunk.add(id);
+		}
+		return chunks;
+	}
+
+	private SearchRequest lookupRequest(List<String> ids) {
+		return client.prepareSearch(indexName)
+				.setQuery(QueryBuilders.idsQuery().addIds(ids.toArray(new String[ids.size()])))
+				.setSize(ids.size()).setFetchSource(false).request();
+	}
+
+	private static void readKeys(SearchResponse response, Map<String, String> keys) {
+		for (SearchHit hit : response.getHits().getHits()) {
+			DocumentField field = hit.field("_routing");
+			if (field != null) {
+				keys.put(hit.getId(), field.getValue().toString());
+			}
+		}
+	}
+
+	public synchronized void setMultiGet(int chunkSize, int concurrency) {
+		Config config = this.config.copy();
+		config.multiGetChunkSize = chunkSize;
+		config.multiGetConcurrency = concurrency;
+		this.config = config;
+	}
+
+	// a rolling index is cleared by deleting all of its indices and starting
+	// over with a new first index behind the alias
 	@Override
 	public void clear() {
 		boolean exists = client.admin().indices().prepareExists(indexName).execute().actionGet().isExists();
 		if (!exists)
 			return;
-		Map<String, Object> mapping = client.admin().indices().prepareGetMappings(indexName).execute().actionGet()
-				.getMappings().get(indexName).get(indexType).getSourceAsMap();
-		client.admin().indices().delete(new DeleteIndexRequest(indexName)).actionGet();
-		CreateIndexRequest request = new CreateIndexRequest(indexName);
-		request.settings(Settings.builder().put("max_result_window", 2147483647).put("number_of_shards", 1));
-		client.admin().indices().create(request).actionGet();
-		PutMappingRequest mappingRequest = org.elasticsearch.client.Requests.putMappingRequest(indexName);
-		mappingRequest.type(indexType).source(mapping);
-		client.admin().indices().putMapping(mappingRequest).actionGet();
+		GetIndexResponse index = client.admin().indices().prepareGetIndex().addIndices(indexName).execute()
+				.actionGet();
+		client.admin().indices().delete(new DeleteIndexRequest(index.getIndices())).actionGet();
+		client.admin().indices().create(clearRequest(index)).actionGet();
+		invalidate();
+	}
+
+	public CompletableFuture<Void> clearAsync() {
+		IndicesAdminClient indices = client.admin().indices();
+		return Async.execute(indices.prepareExists(indexName)).thenCompose(response -> {
+			if (!response.isExists())
+				return CompletableFuture.completedFuture(null);
+			return Async.execute(indices.prepareGetIndex().addIndices(indexName))
+					.thenCompose(index -> Async
+							.execute(indices, DeleteIndexAction.INSTANCE, new DeleteIndexRequest(index.getIndices()))
+							.thenCompose(deleted -> Async.execute(indices, CreateIndexAction.INSTANCE,
+									clearRequest(index))))
+					.thenRun(this::invalidate);
+		});
 	}
 
+	// keeps the mapping and the shard and replica counts of the index that
+	// writes went to
+	private CreateIndexRequest clearRequest(GetIndexResponse index) {
+		String current = writeIndex(index);
+		boolean rolling = !current.equals(indexName);
+		CreateIndexRequest request = new CreateIndexRequest(rolling ? indexName + "-000001" : indexName);
+		Settings.Builder settings = Settings.builder()
+				.put(NUMBER_OF_SHARDS, index.getSetting(current, NUMBER_OF_SHARDS))
+				.put(NUMBER_OF_REPLICAS, index.getSetting(current, NUMBER_OF_REPLICAS));
+		// unpaged searches continue with search_after and do not need a larger
+		// result window, only one that was configured for the index is kept
+		String maxResultWindow = index.getSetting(current, MAX_RESULT_WINDOW);
+		if (maxResultWindow != null) {
+			settings.put(MAX_RESULT_WINDOW, maxResultWindow);
+		}
+		request.settings(settings);
+		request.mapping(indexType, index.getMappings().get(current).get(indexType).getSourceAsMap());
+		if (rolling) {
+			request.alias(new Alias(indexName).writeIndex(true));
+		}
+		return request;
+	}
+
+	// the concrete index behind the client index name, which is the current
+	// write index of a rolling index
+	private String writeIndex(GetIndexResponse index) {
+		for (String name : index.getIndices()) {
+			List<AliasMetadata> aliases = index.getAliases().get(name);
+			if (aliases == null)
+				continue;
+			for (AliasMetadata alias : aliases) {
+				if (alias.alias().equals(indexName) && Boolean.TRUE.equals(alias.writeIndex()))
+					return name;
+			}
+		}
+		return index.getIndices()[0];
+	}
+
+	// also deletes the indices of a rolling index, which are resolved from
+	// its alias because indices cannot be deleted by an alias
 	@Override
 	public void delete() {
 		boolean exists = client.admin().indices().prepareExists(indexName).execute().actionGet().isExists();
 		if (!exists)
 			return;
-		client.admin().indices().delete(new DeleteIndexRequest(indexName)).actionGet();
+		String[] indices = client.admin().indices().prepareGetIndex().addIndices(indexName).execute().actionGet()
+				.getIndices();
+		client.admin().indices().delete(new DeleteIndexRequest(indices)).actionGet();
+		invalidate();
+	}
+
+	public CompletableFuture<Void> deleteAsync() {
+		IndicesAdminClient indices = client.admin().indices();
+		return Async.execute(indices.prepareExists(indexName)).thenCompose(response -> {
+			if (!response.isExists())
+				return CompletableFuture.completedFuture(null);
+			return Async.execute(indices.prepareGetIndex().addIndices(indexName))
+					.thenCompose(index -> Async.execute(indices, DeleteIndexAction.INSTANCE,
+							new DeleteIndexRequest(index.getIndices())))
+					.thenRun(this::invalidate);
+		});
 	}
 
 }
@@ -0,0 +1,35 @@
+package com.greendelta.search.wrapper.es;
+
+import com.greendelta.search.wrapper.SearchResult;
+
+/**
+ * A search result that tells whether all matching hits were collected. The
+ * searches of the client return instances of this class, partial results
+ * contain the hits that were received before the search stopped.
+ */
+public class EsSearchResult<T> extends SearchResult<T> {
+
+	/** A shard or the request timeout expired before the search completed. */
+	public boolean timedOut;
+
+	/** A shard stopped collecting hits at the terminate_after limit. */
+	public boolean terminatedEarly;
+
+	/** The number of shards that failed for at least one page. */
+	public int failedShards;
+
+	/** The search was cancelled before all pages were fetched. */
+	public boolean cancelled;
+
+	/** A request failed, the result only contains the pages fetched before. */
+	public boolean failed;
+
+	public boolean isPartial() {
+		return timedOut || terminatedEarly || failedShards > 0 || cancelled || failed;
+	}
+
+	public static boolean isPartial(SearchResult<?> result) {
+		return result instanceof EsSearchResult && ((EsSearchResult<?>) result).isPartial();
+	}
+
+}
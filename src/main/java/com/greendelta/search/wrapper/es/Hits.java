@@ -0,0 +1,57 @@
+package com.greendelta.search.wrapper.es;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Lazily iterates over the hits of a cursor. The next page is only fetched
+ * when the current one was consumed. Consumed hits stay in their page, which
+ * is released as a whole when the next page is fetched.
+ */
+class Hits implements Iterator<SearchHit> {
+
+	private final Cursor cursor;
+	private SearchHit[] page = new SearchHit[0];
+	private int index;
+
+	Hits(Cursor cursor) {
+		this.cursor = cursor;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (index == page.length) {
+			if (!cursor.hasNext())
+				return false;
+			page = fetch();
+			index = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public SearchHit next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return page[index++];
+	}
+
+	void close() {
+		cursor.close();
+		page = new SearchHit[0];
+		index = 0;
+	}
+
+	private SearchHit[] fetch() {
+		try {
+			return cursor.next().getHits();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
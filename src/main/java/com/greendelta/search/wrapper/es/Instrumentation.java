@@ -0,0 +1,55 @@
+package com.greendelta.search.wrapper.es;
+
+/**
+ * Receives timings and counts from the client. All methods do nothing by
+ * default, so implementations only override what they record. Methods are
+ * called on the threads that execute the requests and must not block.
+ */
+public interface Instrumentation {
+
+	Instrumentation NONE = new Instrumentation() {
+	};
+
+	enum Phase {
+
+		/** Building the query from the search query. */
+		BUILD_QUERY,
+
+		/** Executing a request against the cluster, per page. */
+		EXECUTE,
+
+		/** Converting the hits of a page into result data. */
+		DECODE_HITS,
+
+		/** Converting the aggregations of a response into results. */
+		MAP_AGGREGATIONS;
+
+	}
+
+	default void latency(Phase phase, long nanos) {
+	}
+
+	/** A page with the given number of hits and source bytes was received. */
+	default void page(int hits, long bytes) {
+	}
+
+	/** An unpaged search completed after fetching the given number of pages. */
+	default void pages(int pages) {
+	}
+
+	/** A search response was incomplete because a shard timed out. */
+	default void timeout() {
+	}
+
+	/** A bulk request completed with failed items. */
+	default void bulkFailures(int failures, int items) {
+	}
+
+	/**
+	 * An operation failed, its caller received an empty or failed result
+	 * instead. A failed bulk request makes the next flush throw.
+	 */
+	default void failure(String operation, Throwable error) {
+	}
+
+}
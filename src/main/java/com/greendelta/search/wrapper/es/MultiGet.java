@@ -0,0 +1,79 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetAction;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.Client;
+
+/**
+ * Executes a list of multi get requests with a limited number of requests in
+ * flight. Found documents are passed to the consumer one at a time, so it does
+ * not need to be thread safe.
+ */
+class MultiGet {
+
+	private final Client client;
+	private final Queue<MultiGetRequest> requests;
+	private final BiConsumer<String, Map<String, Object>> consumer;
+
+	private MultiGet(Client client, List<MultiGetRequest> requests, BiConsumer<String, Map<String, Object>> consumer) {
+		this.client = client;
+		this.requests = new ConcurrentLinkedQueue<>(requests);
+		this.consumer = consumer;
+	}
+
+	static void run(Client client, List<MultiGetRequest> requests, int concurrency,
+			BiConsumer<String, Map<String, Object>> consumer) {
+		try {
+			runAsync(client, requests, concurrency, consumer).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	static CompletableFuture<Void> runAsync(Client client, List<MultiGetRequest> requests, int concurrency,
+			BiConsumer<String, Map<String, Object>> consumer) {
+		MultiGet multiGet = new MultiGet(client, requests, consumer);
+		int workers = Math.max(1, Math.min(concurrency, requests.size()));
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[workers];
+		for (int i = 0; i < workers; i++) {
+			futures[i] = multiGet.next();
+		}
+		return CompletableFuture.allOf(futures);
+	}
+
+	private CompletableFuture<Void> next() {
+		MultiGetRequest request = requests.poll();
+		if (request == null)
+			return CompletableFuture.completedFuture(null);
+		return Async.execute(client, MultiGetAction.INSTANCE, request).thenCompose(response -> {
+			accept(response);
+			return next();
+		});
+	}
+
+	private synchronized void accept(MultiGetResponse response) {
+		for (MultiGetItemResponse item : response) {
+			GetResponse getResponse = item.getResponse();
+			if (getResponse == null)
+				continue;
+			Map<String, Object> source = getResponse.getSource();
+			if (source == null || source.isEmpty())
+				continue;
+			consumer.accept(getResponse.getId(), source);
+		}
+	}
+
+}
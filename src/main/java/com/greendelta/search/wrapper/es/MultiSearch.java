@@ -0,0 +1,103 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.SearchResult;
+import com.greendelta.search.wrapper.es.Instrumentation.Phase;
+import com.greendelta.search.wrapper.es.Search.EsResponse;
+
+/**
+ * Executes the first page of several search queries in one multi search
+ * request. Cached responses are taken from the result cache and not sent
+ * again, unpaged queries with more hits than one page are continued with
+ * their own requests.
+ */
+class MultiSearch {
+
+	static List<SearchResult<Map<String, Object>>> run(Client client, Config config, List<Request> requests,
+			List<SearchQuery> searchQueries, BiConsumer<SearchQuery, Exception> onFailure) {
+		int size = searchQueries.size();
+		String[] keys = new String[size];
+		long[] generations = new long[size];
+		EsResponse[] responses = new EsResponse[size];
+		Exception[] failures = new Exception[size];
+		List<Integer> sent = new ArrayList<>();
+		TimeValue timeout = null;
+		MultiSearchRequest multiSearch = new MultiSearchRequest();
+		for (int i = 0; i < size; i++) {
+			Request request = requests.get(i);
+			// a query that can not be prepared only fails its own result
+			try {
+				Search.prepare(request, searchQueries.get(i));
+			} catch (Exception e) {
+				failures[i] = e;
+				continue;
+			}
+			SearchRequest searchRequest = request.searchRequest();
+			generations[i] = request.generation();
+			keys[i] = request.cacheKey(searchRequest);
+			responses[i] = request.cached(keys[i]);
+			if (responses[i] == null) {
+				// starts the deadline of the request, continued pages share
+				// the timeout with the first page that is sent here
+				timeout = request.remaining();
+				multiSearch.add(searchRequest);
+				sent.add(i);
+			}
+		}
+		if (!sent.isEmpty()) {
+			long start = System.nanoTime();
+			execute(client, multiSearch, timeout, requests, sent, keys, generations, responses, failures);
+			config.instrumentation.latency(Phase.EXECUTE, System.nanoTime() - start);
+		}
+		List<SearchResult<Map<String, Object>>> results = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			SearchQuery searchQuery = searchQueries.get(i);
+			try {
+				if (failures[i] != null)
+					throw failures[i];
+				results.add(Search.run(requests.get(i), responses[i], searchQuery));
+			} catch (Exception e) {
+				onFailure.accept(searchQuery, e);
+				results.add(Search.failed(searchQuery));
+			}
+		}
+		return results;
+	}
+
+	private static void execute(Client client, MultiSearchRequest multiSearch, TimeValue timeout,
+			List<Request> requests, List<Integer> sent, String[] keys, long[] generations, EsResponse[] responses,
+			Exception[] failures) {
+		MultiSearchResponse.Item[] items;
+		try {
+			ActionFuture<MultiSearchResponse> future = client.multiSearch(multiSearch);
+			MultiSearchResponse response = timeout != null ? future.actionGet(timeout) : future.actionGet();
+			items = response.getResponses();
+		} catch (Exception e) {
+			for (int i : sent) {
+				failures[i] = e;
+			}
+			return;
+		}
+		for (int j = 0; j < items.length; j++) {
+			int i = sent.get(j);
+			if (items[j].isFailure()) {
+				failures[i] = items[j].getFailure();
+			} else {
+				responses[i] = requests.get(i).response(keys[i], generations[i], items[j].getResponse());
+			}
+		}
+	}
+
+}
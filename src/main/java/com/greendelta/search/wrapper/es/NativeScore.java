@@ -0,0 +1,187 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder.FilterFunctionBuilder;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+
+import com.greendelta.search.wrapper.score.Case;
+import com.greendelta.search.wrapper.score.Comparator;
+import com.greendelta.search.wrapper.score.Condition;
+import com.greendelta.search.wrapper.score.Field;
+import com.greendelta.search.wrapper.score.Score;
+
+/**
+ * Translates scores into a function_score with one filtered weight function
+ * per case, evaluated with score mode "first" like the cases of the script.
+ * Only conditions comparing a field value with a constant can be expressed
+ * this way, other scores (e.g. distance calculations) return null and have to
+ * be scored with a script. The same applies to EQUALS with a number, which the
+ * script compares with equals, so that e.g. a long field never equals an
+ * integer constant, while a term query compares the numeric values.
+ */
+class NativeScore {
+
+	private static final Pattern FIELD_VALUE = Pattern.compile("^\\s*fieldValues\\[(\\d+)\\]\\s*$");
+	private static final Pattern VALUE = Pattern.compile("^\\s*values\\[(\\d+)\\]\\s*$");
+
+	static QueryBuilder apply(QueryBuilder query, Score score) {
+		FilterFunctionBuilder[] functions = functions(score);
+		if (functions == null)
+			return null;
+		FunctionScoreQueryBuilder builder = QueryBuilders.functionScoreQuery(query, functions);
+		builder.scoreMode(FunctionScoreQuery.ScoreMode.FIRST);
+		builder.boostMode(CombineFunction.MULTIPLY);
+		return builder;
+	}
+
+	private static FilterFunctionBuilder[] functions(Score score) {
+		List<FilterFunctionBuilder> functions = new ArrayList<>();
+		double defaultWeight = score.getDefaultWeight();
+		if (score.getCases().length != 0) {
+			QueryBuilder outOfLimits = limits(score);
+			if (outOfLimits != null) {
+				functions.add(weight(outOfLimits, defaultWeight));
+			}
+			for (Case c : score.getCases()) {
+				if (c.conditions.isEmpty()) {
+					defaultWeight = c.weight;
+					break;
+				}
+				QueryBuilder filter = conditions(score, c);
+				if (filter == null)
+					return null;
+				functions.add(weight(filter, c.weight));
+			}
+		}
+		functions.add(new FilterFunctionBuilder(ScoreFunctionBuilders.weightFactorFunction((float) defaultWeight)));
+		return functions.toArray(new FilterFunctionBuilder[functions.size()]);
+	}
+
+	private static FilterFunctionBuilder weight(QueryBuilder filter, double weight) {
+		return new FilterFunctionBuilder(filter, ScoreFunctionBuilders.weightFactorFunction((float) weight));
+	}
+
+	private static QueryBuilder limits(Score score) {
+		BoolQueryBuilder bool = QueryBuilders.boolQuery();
+		for (Field field : score.fields) {
+			if (field.lowerLimit != null) {
+				bool.should(QueryBuilders.rangeQuery(field.name).lt(field.lowerLimit));
+			}
+			if (field.upperLimit != null) {
+				bool.should(QueryBuilders.rangeQuery(field.name).gt(field.upperLimit));
+			}
+		}
+		if (bool.should().isEmpty())
+			return null;
+		return bool;
+	}
+
+	private static QueryBuilder conditions(Score score, Case scoreCase) {
+		BoolQueryBuilder bool = QueryBuilders.boolQuery();
+		for (Condition condition : scoreCase.conditions) {
+			QueryBuilder query = condition(score, condition);
+			if (query == null)
+				return null;
+			bool.filter(query);
+		}
+		if (bool.filter().size() == 1)
+			return bool.filter().get(0);
+		return bool;
+	}
+
+	private static QueryBuilder condition(Score score, Condition condition) {
+		String field = field(score, condition.value1);
+		Object value = constant(score, condition.value2);
+		Comparator comparator = condition.comparator;
+		if (field == null || value == null) {
+			field = field(score, condition.value2);
+			value = constant(score, condition.value1);
+			comparator = flip(comparator);
+		}
+		if (field == null || value == null)
+			return null;
+		switch (comparator) {
+		case EQUALS:
+			if (value instanceof Number)
+				return null;
+			return QueryBuilders.termQuery(field, value);
+		case IS:
+			return QueryBuilders.termQuery(field, value);
+		default:
+			return range(field, comparator, value);
+		}
+	}
+
+	private static QueryBuilder range(String field, Comparator comparator, Object value) {
+		if (!(value instanceof Number))
+			return null;
+		RangeQueryBuilder range = QueryBuilders.rangeQuery(field);
+		switch (comparator) {
+		case IS_LESS_THAN:
+			return range.lt(value);
+		case IS_LESS_OR_EQUAL_THAN:
+			return range.lte(value);
+		case IS_GREATER_THAN:
+			return range.gt(value);
+		case IS_GREATER_OR_EQUAL_THAN:
+			return range.gte(value);
+		default:
+			return null;
+		}
+	}
+
+	private static String field(Score score, Object operand) {
+		Integer index = index(FIELD_VALUE, operand, score);
+		if (index == null)
+			return null;
+		return score.fields.get(index).name;
+	}
+
+	private static Object constant(Score score, Object operand) {
+		if (operand instanceof Number)
+			return operand;
+		Integer index = index(VALUE, operand, score);
+		if (index == null)
+			return null;
+		return score.fields.get(index).value;
+	}
+
+	private static Integer index(Pattern pattern, Object operand, Score score) {
+		if (!(operand instanceof String))
+			return null;
+		Matcher matcher = pattern.matcher((String) operand);
+		if (!matcher.matches())
+			return null;
+		int index = Integer.parseInt(matcher.group(1));
+		if (index >= score.fields.size())
+			return null;
+		return index;
+	}
+
+	private static Comparator flip(Comparator comparator) {
+		switch (comparator) {
+		case IS_LESS_THAN:
+			return Comparator.IS_GREATER_THAN;
+		case IS_LESS_OR_EQUAL_THAN:
+			return Comparator.IS_GREATER_OR_EQUAL_THAN;
+		case IS_GREATER_THAN:
+			return Comparator.IS_LESS_THAN;
+		case IS_GREATER_OR_EQUAL_THAN:
+			return Comparator.IS_LESS_OR_EQUAL_THAN;
+		default:
+			return comparator;
+		}
+	}
+
+}
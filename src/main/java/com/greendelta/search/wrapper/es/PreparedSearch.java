@@ -0,0 +1,77 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.SearchResult;
+
+/**
+ * A search of which sorting, aggregations and source filtering are set up
+ * once from a shape query. Each run applies the paging of the given query and
+ * builds its filters and scores again, sorting and aggregations of the query
+ * are ignored. The query must be paged or unpaged and return full results or
+ * ids like the shape. Aggregation settings of the client are applied when the
+ * search is prepared. Prepared searches can be run concurrently.
+ */
+public class PreparedSearch {
+
+	private final Supplier<Request> requests;
+	private final SearchQuery shape;
+	private final SearchSourceBuilder source;
+	private final List<AggregationBuilder> aggregations;
+
+	PreparedSearch(Supplier<Request> requests, SearchQuery shape, String[] includes, String[] excludes) {
+		this.requests = requests;
+		this.shape = shape;
+		Request template = requests.get();
+		Search.shape(template, shape);
+		if (includes != null || excludes != null) {
+			template.setFetchSource(includes, excludes);
+		}
+		source = template.getSource();
+		aggregations = new ArrayList<>(template.getAggregations());
+	}
+
+	public SearchResult<Map<String, Object>> search(SearchQuery searchQuery) {
+		return Search.collect(bind(searchQuery, aggregations), searchQuery);
+	}
+
+	public CompletableFuture<SearchResult<Map<String, Object>>> searchAsync(SearchQuery searchQuery) {
+		return Search.collectAsync(bind(searchQuery, aggregations), searchQuery);
+	}
+
+	// ids are searched without the aggregations of the shape
+	public Set<String> searchIds(SearchQuery searchQuery) {
+		Request request = bind(searchQuery, Collections.emptyList());
+		request.setFetchSource(false);
+		return Search.collectIds(request, searchQuery);
+	}
+
+	public CompletableFuture<Set<String>> searchIdsAsync(SearchQuery searchQuery) {
+		Request request = bind(searchQuery, Collections.emptyList());
+		request.setFetchSource(false);
+		return Search.collectIdsAsync(request, searchQuery);
+	}
+
+	private Request bind(SearchQuery searchQuery, List<AggregationBuilder> aggregations) {
+		if (searchQuery.isPaged() != shape.isPaged())
+			throw new IllegalArgumentException("The query must be " + (shape.isPaged() ? "paged" : "unpaged")
+					+ " like the shape of the prepared search");
+		if (searchQuery.getFullResult() != shape.getFullResult())
+			throw new IllegalArgumentException("The query must return the same result type as the shape");
+		Request request = requests.get();
+		request.setTemplate(source, aggregations);
+		Search.bind(request, searchQuery);
+		return request;
+	}
+
+}
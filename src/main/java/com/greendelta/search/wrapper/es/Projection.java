@@ -0,0 +1,130 @@
+package com.greendelta.search.wrapper.es;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+
+import com.greendelta.search.wrapper.es.Search.EsRequest;
+
+/**
+ * Reads a fixed list of fields of each hit into a row, either from doc values
+ * or by streaming over the source and skipping everything else, without
+ * creating a map of the whole source. The row is reused for every hit. Fields
+ * inside of arrays of objects are only available from doc values.
+ */
+class Projection {
+
+	private final String[] fields;
+	private final boolean docValues;
+	private final Map<String, Integer> columns = new HashMap<>();
+	private final Set<String> objects = new HashSet<>();
+	private final Object[] row;
+	private int found;
+
+	Projection(String[] fields, boolean docValues) {
+		this.fields = fields;
+		this.docValues = docValues;
+		this.row = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			columns.put(fields[i], i);
+			int index = fields[i].lastIndexOf('.');
+			while (index > 0) {
+				objects.add(fields[i].substring(0, index));
+				index = fields[i].lastIndexOf('.', index - 1);
+			}
+		}
+	}
+
+	void setup(EsRequest request) {
+		if (!docValues) {
+			request.setFetchSource(fields, null);
+			return;
+		}
+		request.setFetchSource(false);
+		for (String field : fields) {
+			request.addDocValueField(field);
+		}
+	}
+
+	Object[] read(SearchHit hit) throws IOException {
+		Arrays.fill(row, null);
+		if (docValues) {
+			readDocValues(hit);
+		} else {
+			readSource(hit.getSourceRef());
+		}
+		return row;
+	}
+
+	private void readDocValues(SearchHit hit) {
+		for (int i = 0; i < fields.length; i++) {
+			DocumentField field = hit.field(fields[i]);
+			if (field == null)
+				continue;
+			List<Object> values = field.getValues();
+			row[i] = values.size() == 1 ? values.get(0) : values;
+		}
+	}
+
+	private void readSource(BytesReference source) throws IOException {
+		if (source == null)
+			return;
+		found = 0;
+		try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+				DeprecationHandler.THROW_UNSUPPORTED_OPERATION, source, XContentType.JSON)) {
+			if (parser.nextToken() == Token.START_OBJECT) {
+				readObject(parser, "");
+			}
+		}
+	}
+
+	private void readObject(XContentParser parser, String prefix) throws IOException {
+		while (found < fields.length && parser.nextToken() == Token.FIELD_NAME) {
+			String path = prefix + parser.currentName();
+			Token token = parser.nextToken();
+			Integer column = columns.get(path);
+			if (column != null) {
+				row[column] = value(parser, token);
+				found++;
+			} else if (token == Token.START_OBJECT && objects.contains(path)) {
+				readObject(parser, path + ".");
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private Object value(XContentParser parser, Token token) throws IOException {
+		switch (token) {
+		case START_OBJECT:
+			return parser.map();
+		case START_ARRAY:
+			return parser.list();
+		case VALUE_STRING:
+			return parser.text();
+		case VALUE_NUMBER:
+			return parser.numberValue();
+		case VALUE_BOOLEAN:
+			return parser.booleanValue();
+		case VALUE_NULL:
+			return null;
+		default:
+			return parser.objectText();
+		}
+	}
+
+}
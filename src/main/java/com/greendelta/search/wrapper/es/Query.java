@@ -3,11 +3,15 @@ package com.greendelta.search.wrapper.es;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
@@ -18,24 +22,30 @@ import org.elasticsearch.index.query.functionscore.ScriptScoreFunctionBuilder;
 
 import com.greendelta.search.wrapper.Conjunction;
 import com.greendelta.search.wrapper.MultiSearchFilter;
+import com.greendelta.search.wrapper.SearchFilterType;
 import com.greendelta.search.wrapper.SearchFilterValue;
 import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.score.Score;
 
 class Query {
 
+	private static final Map<String, String[]> NESTED_PATHS = new ConcurrentHashMap<>();
+
 	static QueryBuilder create(SearchQuery searchQuery) {
 		BoolQueryBuilder bool = QueryBuilders.boolQuery();
-		searchQuery.getFilters().forEach(filter -> {
+		searchQuery.getFilters().stream().sorted(Comparator.comparing(filter -> filter.field)).forEach(filter -> {
 			QueryBuilder query = create(filter.field, filter.conjunction, filter.values);
-			append(bool, query, Conjunction.AND);
+			append(bool, query, Conjunction.AND, isScoring(filter.values));
 		});
 		searchQuery.getMultiFilters().forEach(filter -> {
 			QueryBuilder query = query(filter);
-			append(bool, query, Conjunction.AND);
+			append(bool, query, Conjunction.AND, isScoring(filter.values));
 		});
 		QueryBuilder query = simplify(bool);
 		if (query == null) {
 			query = QueryBuilders.matchAllQuery();
+		} else if (bool.must().isEmpty() && bool.should().isEmpty()) {
+			query = QueryBuilders.constantScoreQuery(query);
 		}
 		return score(query, searchQuery);
 	}
@@ -43,51 +53,133 @@ class Query {
 	private static QueryBuilder create(String field, Conjunction conjunction, Set<SearchFilterValue> values) {
 		if (values.isEmpty())
 			return null;
+		if (conjunction == Conjunction.OR)
+			return nest(combine(field, values), field);
 		BoolQueryBuilder bool = QueryBuilders.boolQuery();
 		values.forEach(value -> {
 			QueryBuilder query = create(field, value);
-			append(bool, query, conjunction);
+			append(bool, query, conjunction, isScoring(value));
+		});
+		return simplify(bool);
+	}
+
+	// nested(path, a) OR nested(path, b) matches the same documents as
+	// nested(path, a OR b), so OR combinations are nested only once
+	private static QueryBuilder combine(String field, Set<SearchFilterValue> values) {
+		BoolQueryBuilder bool = QueryBuilders.boolQuery();
+		List<Object> terms = new ArrayList<>();
+		values.forEach(value -> {
+			if (isPlainTerm(value)) {
+				terms.addAll(toCollection(value.value));
+			} else {
+				QueryBuilder query = decorate(builder(field, value), value.boost);
+				append(bool, query, Conjunction.OR, false);
+			}
 		});
+		if (!terms.isEmpty()) {
+			terms.sort(Comparator.comparing(Object::toString));
+			append(bool, terms(field, terms), Conjunction.OR, false);
+		}
 		return simplify(bool);
 	}
 
+	private static boolean isPlainTerm(SearchFilterValue value) {
+		if (value.type != SearchFilterType.TERM || value.boost != null)
+			return false;
+		return value.value != null && !value.value.toString().isEmpty();
+	}
+
 	private static QueryBuilder query(MultiSearchFilter filter) {
 		if (filter.values.isEmpty())
 			return null;
 		BoolQueryBuilder bool = QueryBuilders.boolQuery();
+		if (filter.conjunction != Conjunction.OR) {
+			filter.fields.forEach(field -> {
+				QueryBuilder query = create(field, filter.conjunction, filter.values);
+				append(bool, query, Conjunction.OR, false);
+			});
+			return simplify(bool);
+		}
+		Map<String, List<String>> fieldsByPath = new TreeMap<>();
 		filter.fields.forEach(field -> {
-			QueryBuilder query = create(field, filter.conjunction, filter.values);
-			append(bool, query, Conjunction.OR);
+			String path = field.contains(".") ? field.substring(0, field.lastIndexOf('.')) : "";
+			fieldsByPath.computeIfAbsent(path, p -> new ArrayList<>()).add(field);
+		});
+		fieldsByPath.values().forEach(fields -> {
+			BoolQueryBuilder nested = QueryBuilders.boolQuery();
+			fields.forEach(field -> append(nested, combine(field, filter.values), Conjunction.OR, false));
+			append(bool, nest(simplify(nested), fields.get(0)), Conjunction.OR, false);
 		});
 		return simplify(bool);
 	}
 
-	private static void append(BoolQueryBuilder boolQuery, QueryBuilder query, Conjunction conjunction) {
+	private static boolean isScoring(Set<SearchFilterValue> values) {
+		for (SearchFilterValue value : values)
+			if (isScoring(value))
+				return true;
+		return false;
+	}
+
+	// full text clauses keep ranking the hits, only exact term and range
+	// matches without a boost are moved into filter context
+	private static boolean isScoring(SearchFilterValue value) {
+		if (value.boost != null)
+			return true;
+		return value.type == SearchFilterType.PHRASE || value.type == SearchFilterType.WILDCARD;
+	}
+
+	// AND clauses that do not need a score go into filter context, where they
+	// are cacheable; OR clauses inherit the context of the enclosing bool
+	private static void append(BoolQueryBuilder boolQuery, QueryBuilder query, Conjunction conjunction,
+			boolean scoring) {
 		if (query == null)
 			return;
 		if (conjunction == Conjunction.AND) {
-			boolQuery.must(query);
+			if (isPlainBool(query) && ((BoolQueryBuilder) query).should().isEmpty()) {
+				BoolQueryBuilder bool = (BoolQueryBuilder) query;
+				(scoring ? boolQuery.must() : boolQuery.filter()).addAll(bool.must());
+				boolQuery.filter().addAll(bool.filter());
+			} else if (scoring) {
+				boolQuery.must(query);
+			} else {
+				boolQuery.filter(query);
+			}
 		} else if (conjunction == Conjunction.OR) {
-			boolQuery.should(query);
+			if (isPlainBool(query) && ((BoolQueryBuilder) query).must().isEmpty()
+					&& ((BoolQueryBuilder) query).filter().isEmpty()) {
+				boolQuery.should().addAll(((BoolQueryBuilder) query).should());
+			} else {
+				boolQuery.should(query);
+			}
 		}
 	}
 
+	private static boolean isPlainBool(QueryBuilder query) {
+		if (!(query instanceof BoolQueryBuilder))
+			return false;
+		BoolQueryBuilder bool = (BoolQueryBuilder) query;
+		return bool.mustNot().isEmpty() && bool.minimumShouldMatch() == null
+				&& bool.boost() == AbstractQueryBuilder.DEFAULT_BOOST;
+	}
+
 	private static QueryBuilder simplify(BoolQueryBuilder query) {
-		int queries = query.must().size() + query.should().size();
+		int queries = query.must().size() + query.should().size() + query.filter().size();
 		if (queries == 0)
 			return null;
-		if (queries == 1 && query.must().isEmpty())
+		if (queries > 1)
+			return query;
+		if (!query.should().isEmpty())
 			return query.should().get(0);
-		if (queries == 1 && query.should().isEmpty())
+		if (!query.must().isEmpty())
 			return query.must().get(0);
-		return query;
+		return query.filter().get(0);
 	}
 
 	private static QueryBuilder create(String field, SearchFilterValue value) {
 		QueryBuilder builder = builder(field, value);
 		if (builder == null)
 			return null;
-		return decorate(builder, field, value);
+		return nest(decorate(builder, value.boost), field);
 	}
 
 	private static QueryBuilder builder(String field, SearchFilterValue value) {
@@ -108,7 +200,10 @@ class Query {
 	}
 
 	private static QueryBuilder terms(String field, SearchFilterValue value) {
-		List<Object> terms = toCollection(value.value);
+		return terms(field, toCollection(value.value));
+	}
+
+	private static QueryBuilder terms(String field, List<Object> terms) {
 		if (terms.size() == 1)
 			return QueryBuilders.termQuery(field, terms.get(0));
 		return QueryBuilders.termsQuery(field, terms);
@@ -145,45 +240,66 @@ class Query {
 	}
 
 	private static List<Object> filterEmpty(Collection<?> values) {
-		return values.stream()
-				.filter(value -> value != null && !value.toString().isEmpty())
-				.collect(Collectors.toList());
+		List<Object> filtered = new ArrayList<>(values.size());
+		for (Object value : values) {
+			if (value != null && !value.toString().isEmpty()) {
+				filtered.add(value);
+			}
+		}
+		return filtered;
 	}
 
-	private static QueryBuilder decorate(QueryBuilder query, String field, SearchFilterValue value) {
+	private static QueryBuilder decorate(QueryBuilder query, Float boost) {
 		if (query == null)
 			return null;
-		if (value.boost != null) {
-			query = query.boost(value.boost);
-		}
-		if (field.contains(".")) {
-			query = nest(query, field);
+		if (boost != null) {
+			query = query.boost(boost);
 		}
 		return query;
 	}
 
 	private static QueryBuilder nest(QueryBuilder query, String field) {
-		String path = field;
-		while (path.contains(".")) {
-			path = path.substring(0, path.lastIndexOf("."));
+		if (query == null)
+			return null;
+		for (String path : nestedPaths(field)) {
 			query = QueryBuilders.nestedQuery(path, query, ScoreMode.Total);
 		}
 		return query;
 	}
 
+	// innermost path first, e.g. a.b.c -> [a.b, a]
+	private static String[] nestedPaths(String field) {
+		return NESTED_PATHS.computeIfAbsent(field, f -> {
+			List<String> paths = new ArrayList<>();
+			int index = f.lastIndexOf('.');
+			while (index > 0) {
+				paths.add(f.substring(0, index));
+				index = f.lastIndexOf('.', index - 1);
+			}
+			return paths.toArray(new String[paths.size()]);
+		});
+	}
+
 	private static QueryBuilder score(QueryBuilder query, SearchQuery searchQuery) {
 		if (searchQuery.getScores().isEmpty())
 			return query;
 		List<FilterFunctionBuilder> functions = new ArrayList<>();
-		searchQuery.getScores().forEach(score -> {
+		for (Score score : searchQuery.getScores()) {
+			QueryBuilder scored = NativeScore.apply(query, score);
+			if (scored != null) {
+				query = scored;
+				continue;
+			}
 			ScriptScoreFunctionBuilder script = ScoreFunctionBuilders.scriptFunction(Script.from(score));
 			functions.add(new FilterFunctionBuilder(script));
-		});
+		}
 		searchQuery.getFunctions().forEach(function -> {
 			LinearDecayFunctionBuilder script = ScoreFunctionBuilders.linearDecayFunction(function.fieldName,
 					function.origin, function.scale, function.offset, function.decay);
 			functions.add(new FilterFunctionBuilder(script));
 		});
+		if (functions.isEmpty())
+			return query;
 		return QueryBuilders.functionScoreQuery(query, functions.toArray(new FilterFunctionBuilder[functions.size()]));
 	}
 
@@ -0,0 +1,26 @@
+package com.greendelta.search.wrapper.es;
+
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+
+/**
+ * Defines when written documents become visible to searches. NONE leaves this
+ * to the refresh interval of the index, EXPLICIT refreshes the index only when
+ * {@link EsClient#flush()} is called. While a bulk ingest runs, writes do not
+ * refresh and the index is refreshed when the ingest stops.
+ */
+public enum Refresh {
+
+	NONE, WAIT_FOR, IMMEDIATE, EXPLICIT;
+
+	RefreshPolicy policy() {
+		switch (this) {
+		case WAIT_FOR:
+			return RefreshPolicy.WAIT_UNTIL;
+		case IMMEDIATE:
+			return RefreshPolicy.IMMEDIATE;
+		default:
+			return RefreshPolicy.NONE;
+		}
+	}
+
+}
@@ -1,21 +1,53 @@
 package com.greendelta.search.wrapper.es;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 
+import com.greendelta.search.wrapper.es.Instrumentation.Phase;
 import com.greendelta.search.wrapper.es.Search.EsRequest;
+import com.greendelta.search.wrapper.es.Search.EsResponse;
 
 class Request implements EsRequest {
 
+	private final Client client;
 	private final SearchRequestBuilder request;
+	private final Config config;
+	private final Cache<EsResponse> cache;
+	private final List<AggregationBuilder> aggregations = new ArrayList<>();
+	private TimeValue scroll;
+	private long deadline;
 
-	Request(Client client, String indexName) {
-		request = client.prepareSearch(indexName);
+	Request(Client client, String[] indices, Config config) {
+		this(client, indices, config, null);
+	}
+
+	Request(Client client, String[] indices, Config config, Cache<EsResponse> cache) {
+		this.client = client;
+		this.config = config;
+		this.cache = cache;
+		request = client.prepareSearch(indices);
+	}
+
+	@Override
+	public Config getConfig() {
+		return config;
 	}
 
 	@Override
@@ -28,6 +60,62 @@ class Request implements EsRequest {
 		request.setSize(size);
 	}
 
+	@Override
+	public void setSearchAfter(Object[] values) {
+		request.searchAfter(values);
+	}
+
+	@Override
+	public void setFetchSource(boolean fetch) {
+		request.setFetchSource(fetch);
+	}
+
+	@Override
+	public void setFetchSource(String[] includes, String[] excludes) {
+		request.setFetchSource(includes, excludes);
+	}
+
+	@Override
+	public void addDocValueField(String field) {
+		request.addDocValueField(field);
+	}
+
+	@Override
+	public void setSlice(int id, int max) {
+		request.slice(new SliceBuilder(id, max));
+	}
+
+	@Override
+	public void setScroll(long keepAlive) {
+		scroll = TimeValue.timeValueMillis(keepAlive);
+		request.setScroll(scroll);
+	}
+
+	@Override
+	public void setTrackTotalHits(boolean track) {
+		request.setTrackTotalHits(track);
+	}
+
+	@Override
+	public void setTrackTotalHitsUpTo(int limit) {
+		request.setTrackTotalHitsUpTo(limit);
+	}
+
+	@Override
+	public void setTimeout(long timeout) {
+		request.setTimeout(TimeValue.timeValueMillis(timeout));
+	}
+
+	@Override
+	public void setTerminateAfter(int maxHits) {
+		request.setTerminateAfter(maxHits);
+	}
+
+	@Override
+	public void setRouting(String routing) {
+		request.setRouting(routing);
+	}
+
 	@Override
 	public void addSort(String field, SortOrder order) {
 		request.addSort(field, order);
@@ -35,7 +123,7 @@ class Request implements EsRequest {
 
 	@Override
 	public void addAggregation(AggregationBuilder aggregation) {
-		request.addAggregation(aggregation);
+		aggregations.add(aggregation);
 	}
 
 	@Override
@@ -43,9 +131,162 @@ class Request implements EsRequest {
 		request.setQuery(query);
 	}
 
+	SearchSourceBuilder getSource() {
+		SearchSourceBuilder source = request.request().source();
+		return source != null ? source : new SearchSourceBuilder();
+	}
+
+	List<AggregationBuilder> getAggregations() {
+		return aggregations;
+	}
+
+	// the copy shares sorts and other lists with the template, so only values
+	// that are replaced as a whole, like paging and the query, can be changed
+	void setTemplate(SearchSourceBuilder source, List<AggregationBuilder> aggregations) {
+		request.setSource(source.shallowCopy());
+		this.aggregations.addAll(aggregations);
+	}
+
+	@Override
+	public EsResponse execute() throws IOException {
+		SearchRequest searchRequest = searchRequest();
+		long generation = generation();
+		String key = cacheKey(searchRequest);
+		EsResponse response = cached(key);
+		if (response != null)
+			return response;
+		TimeValue remaining = remaining();
+		long start = System.nanoTime();
+		SearchResponse searchResponse = get(client.search(searchRequest), remaining);
+		config.instrumentation.latency(Phase.EXECUTE, System.nanoTime() - start);
+		return response(key, generation, searchResponse);
+	}
+
+	@Override
+	public CompletableFuture<EsResponse> executeAsync() {
+		SearchRequest searchRequest = searchRequest();
+		long generation = generation();
+		String key = cacheKey(searchRequest);
+		EsResponse cached = cached(key);
+		if (cached != null)
+			return CompletableFuture.completedFuture(cached);
+		try {
+			remaining();
+		} catch (ElasticsearchTimeoutException e) {
+			CompletableFuture<EsResponse> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		long start = System.nanoTime();
+		return Async.execute(client, SearchAction.INSTANCE, searchRequest).thenApply(searchResponse -> {
+			config.instrumentation.latency(Phase.EXECUTE, System.nanoTime() - start);
+			return response(key, generation, searchResponse);
+		});
+	}
+
+	// the deadline is checked before the request is sent, so that a search
+	// that is already over time does not start another page
+	private SearchResponse get(ActionFuture<SearchResponse> future, TimeValue remaining) {
+		if (remaining == null)
+			return future.actionGet();
+		return future.actionGet(remaining);
+	}
+
+	// the request timeout applies to all pages of a search together, it
+	// starts with the first page
+	TimeValue remaining() {
+		if (config.requestTimeout == null)
+			return null;
+		long now = System.nanoTime();
+		if (deadline == 0) {
+			deadline = now + TimeValue.timeValueMillis(config.requestTimeout).nanos();
+		}
+		long remaining = deadline - now;
+		if (remaining <= 0)
+			throw new ElasticsearchTimeoutException("Search did not complete within {} ms", config.requestTimeout);
+		return TimeValue.timeValueNanos(remaining);
+	}
+
+	// aggregations are only requested with the first page, following pages
+	// continue after the last hit with search_after and would return the same
+	// aggregations again
+	SearchRequest searchRequest() {
+		SearchRequest searchRequest = request.request();
+		if (aggregations.isEmpty() || isContinued(searchRequest))
+			return searchRequest;
+		SearchSourceBuilder source = searchRequest.source() != null ? searchRequest.source().shallowCopy()
+				: new SearchSourceBuilder();
+		aggregations.forEach(source::aggregation);
+		return new SearchRequest(searchRequest).source(source);
+	}
+
+	private static boolean isContinued(SearchRequest searchRequest) {
+		return searchRequest.source() != null && searchRequest.source().searchAfter() != null;
+	}
+
+	String cacheKey(SearchRequest searchRequest) {
+		if (cache == null || scroll != null)
+			return null;
+		return String.join(",", searchRequest.indices()) + "|" + searchRequest.routing() + "|"
+				+ searchRequest.preference() + "|" + searchRequest.source();
+	}
+
+	// read before the request is sent, responses of requests that were sent
+	// before the cache was invalidated are not cached
+	long generation() {
+		return cache != null ? cache.generation() : 0;
+	}
+
+	EsResponse cached(String key) {
+		if (key == null)
+			return null;
+		return cache.get(key);
+	}
+
+	EsResponse response(String key, long generation, SearchResponse searchResponse) {
+		instrument(searchResponse);
+		EsResponse response = new Response(searchResponse);
+		if (key != null && !isPartial(response)) {
+			cache.put(key, response, generation);
+		}
+		return response;
+	}
+
+	// partial responses are not cached, a later search may complete
+	private static boolean isPartial(EsResponse response) {
+		return response.isTimedOut() || response.isTerminatedEarly() || response.getFailedShards() > 0;
+	}
+
+	private void instrument(SearchResponse searchResponse) {
+		Instrumentation instrumentation = config.instrumentation;
+		if (instrumentation == Instrumentation.NONE)
+			return;
+		SearchHit[] hits = searchResponse.getHits().getHits();
+		long bytes = 0;
+		for (SearchHit hit : hits) {
+			if (hit.getSourceRef() != null) {
+				bytes += hit.getSourceRef().length();
+			}
+		}
+		instrumentation.page(hits.length, bytes);
+		if (searchResponse.isTimedOut()) {
+			instrumentation.timeout();
+		}
+	}
+
+	@Override
+	public Response scroll(String scrollId) throws IOException {
+		TimeValue remaining = remaining();
+		long start = System.nanoTime();
+		SearchResponse searchResponse = get(client.prepareSearchScroll(scrollId).setScroll(scroll).execute(), remaining);
+		config.instrumentation.latency(Phase.EXECUTE, System.nanoTime() - start);
+		instrument(searchResponse);
+		return new Response(searchResponse);
+	}
+
 	@Override
-	public Response execute() throws IOException {
-		return new Response(request.execute().actionGet());
+	public void clearScroll(String scrollId) {
+		client.prepareClearScroll().addScrollId(scrollId).execute();
 	}
 
 }
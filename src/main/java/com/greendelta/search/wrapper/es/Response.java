@@ -3,6 +3,7 @@ package com.greendelta.search.wrapper.es;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.lucene.search.TotalHits;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregation;
@@ -27,9 +28,39 @@ class Response implements EsResponse {
 		return response.getHits().getHits();
 	}
 
+	@Override
+	public String getScrollId() {
+		return response.getScrollId();
+	}
+
 	@Override
 	public long getTotalHits() {
-		return response.getHits().getTotalHits().value;
+		TotalHits totalHits = response.getHits().getTotalHits();
+		if (totalHits == null)
+			return 0;
+		return totalHits.value;
+	}
+
+	// shards that terminated early only counted the hits they collected
+	@Override
+	public boolean isTotalHitsExact() {
+		TotalHits totalHits = response.getHits().getTotalHits();
+		return totalHits != null && totalHits.relation == TotalHits.Relation.EQUAL_TO && !isTerminatedEarly();
+	}
+
+	@Override
+	public boolean isTimedOut() {
+		return response.isTimedOut();
+	}
+
+	@Override
+	public boolean isTerminatedEarly() {
+		return Boolean.TRUE.equals(response.isTerminatedEarly());
+	}
+
+	@Override
+	public int getFailedShards() {
+		return response.getFailedShards();
 	}
 
 	@Override
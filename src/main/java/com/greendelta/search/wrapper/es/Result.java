@@ -98,17 +98,33 @@ class Result {
 		return bucketCount;
 	}
 
-	static void extend(SearchResult<Map<String, Object>> result, long totalHits,
+	// if total hits are only a lower bound, the hits of the current page are
+	// used to correct the total count, a page that is not full is the last one
+	// and a full page is followed by at least one more
+	static void extend(SearchResult<Map<String, Object>> result, long totalHits, boolean exact,
 			SearchQuery searchQuery) {
-		result.resultInfo.totalCount = totalHits;
+		int pageSize = searchQuery.getPageSize();
+		int hits = result.data.size();
+		long totalCount = totalHits;
+		if (!exact && pageSize != 0 && hits != 0) {
+			long seen = (long) (searchQuery.getPage() - 1) * pageSize + hits;
+			totalCount = Math.max(totalCount, seen);
+			if (hits < pageSize) {
+				totalCount = seen;
+				exact = true;
+			}
+		}
+		result.resultInfo.totalCount = totalCount;
 		result.resultInfo.currentPage = searchQuery.getPage();
-		result.resultInfo.pageSize = searchQuery.getPageSize();
-		long totalCount = result.resultInfo.totalCount;
-		if (searchQuery.getPageSize() != 0) {
-			int pageCount = (int) totalCount / searchQuery.getPageSize();
-			if ((totalCount % searchQuery.getPageSize()) != 0) {
+		result.resultInfo.pageSize = pageSize;
+		if (pageSize != 0) {
+			int pageCount = (int) totalCount / pageSize;
+			if ((totalCount % pageSize) != 0) {
 				pageCount = 1 + pageCount;
 			}
+			if (!exact && hits == pageSize) {
+				pageCount = Math.max(pageCount, searchQuery.getPage() + 1);
+			}
 			result.resultInfo.pageCount = pageCount;
 		}
 	}
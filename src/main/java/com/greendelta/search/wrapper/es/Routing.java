@@ -0,0 +1,57 @@
+package com.greendelta.search.wrapper.es;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Computes the routing key of a document, which selects the shard that stores
+ * it. Documents without a key are routed by their id. The same key must be
+ * used for all operations on a document, but updates, removals and gets only
+ * know its id, so the content is only given for index operations.
+ */
+public interface Routing {
+
+	Routing NONE = (id, content) -> null;
+
+	String key(String id, Map<String, Object> content);
+
+	/**
+	 * Whether the key can be computed from the id alone. Otherwise the client
+	 * looks up the keys of documents that it only knows by their id with a
+	 * search over all shards.
+	 */
+	default boolean isIdRouted() {
+		return true;
+	}
+
+	/** Routes by a function of the document id. */
+	static Routing byId(Function<String, String> key) {
+		return (id, content) -> key.apply(id);
+	}
+
+	/**
+	 * Routes index operations by the value of a document field. Updates,
+	 * removals and gets look up the key with a search, which only finds
+	 * documents that were refreshed since they were indexed. The routed
+	 * methods of the client take the key from the caller instead.
+	 */
+	static Routing byField(String field) {
+		return new Routing() {
+
+			@Override
+			public String key(String id, Map<String, Object> content) {
+				if (content == null)
+					return null;
+				Object value = content.get(field);
+				return value != null ? value.toString() : null;
+			}
+
+			@Override
+			public boolean isIdRouted() {
+				return false;
+			}
+
+		};
+	}
+
+}
@@ -1,73 +1,193 @@
 package com.greendelta.search.wrapper.es;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.elasticsearch.script.ScriptType;
+
 import com.greendelta.search.wrapper.score.Case;
 import com.greendelta.search.wrapper.score.Comparator;
 import com.greendelta.search.wrapper.score.Condition;
 import com.greendelta.search.wrapper.score.Field;
 import com.greendelta.search.wrapper.score.Score;
 
+/**
+ * Creates score scripts that only depend on the shape of a score (number of
+ * fields, present limits, value types, conditions), all values are passed as
+ * parameters. Scores of the same shape therefore share one script source,
+ * which is compiled only once by the cluster.
+ */
 class Script {
 
-	static String from(Score score) {
-		double dWeight = score.getDefaultWeight();
+	private static final int MAX_SOURCES = 1000;
+	private static final Map<String, String> SOURCES = new ConcurrentHashMap<>();
+	private static final String METHODS = getMethods();
+
+	static org.elasticsearch.script.Script from(Score score) {
+		String shape = shape(score);
+		String source = SOURCES.get(shape);
+		if (source == null) {
+			if (SOURCES.size() >= MAX_SOURCES) {
+				SOURCES.clear();
+			}
+			source = source(score);
+			SOURCES.put(shape, source);
+		}
+		return new org.elasticsearch.script.Script(ScriptType.INLINE, "painless", source, params(score));
+	}
+
+	private static Map<String, Object> params(Score score) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("defaultWeight", score.getDefaultWeight());
+		List<String> fields = new ArrayList<>();
+		List<Object> values = new ArrayList<>();
+		List<Object> lowerLimits = new ArrayList<>();
+		List<Object> upperLimits = new ArrayList<>();
+		for (Field field : score.fields) {
+			fields.add(field.name);
+			values.add(field.value);
+			lowerLimits.add(field.lowerLimit);
+			upperLimits.add(field.upperLimit);
+		}
+		params.put("fields", fields);
+		params.put("values", values);
+		params.put("lowerLimits", lowerLimits);
+		params.put("upperLimits", upperLimits);
+		List<Object> weights = new ArrayList<>();
+		List<Object> literals = new ArrayList<>();
+		for (Case c : score.getCases()) {
+			weights.add(c.weight);
+			for (Condition con : c.conditions) {
+				if (con.value1 instanceof Number) {
+					literals.add(con.value1);
+				}
+				if (con.value2 instanceof Number) {
+					literals.add(con.value2);
+				}
+			}
+			if (c.conditions.isEmpty())
+				break;
+		}
+		params.put("weights", weights);
+		params.put("literals", literals);
+		return params;
+	}
+
+	private static String shape(Score score) {
+		StringBuilder s = new StringBuilder();
+		for (Field field : score.fields) {
+			s.append(typeOf(field.value)).append(field.lowerLimit != null ? 'l' : '-')
+					.append(field.upperLimit != null ? 'u' : '-').append(';');
+		}
+		s.append('|');
+		for (Case c : score.getCases()) {
+			for (Condition con : c.conditions) {
+				s.append(operandShape(con.value1)).append(con.comparator).append(operandShape(con.value2)).append('&');
+			}
+			s.append(';');
+			if (c.conditions.isEmpty())
+				break;
+		}
+		return s.toString();
+	}
+
+	private static String operandShape(Object value) {
+		if (value instanceof Number)
+			return "#" + typeOf(value);
+		return "(" + value + ")";
+	}
+
+	private static String typeOf(Object value) {
+		return value == null ? "null" : value.getClass().getSimpleName();
+	}
+
+	private static String source(Score score) {
 		if (score.getCases().length == 0)
-			return "return " + dWeight + ";";
-		String s = getMethods(score);
-		s += "def[] fieldValues = new def[" + score.fields.size() + "];";
-		s += "def[] values = new def[" + score.fields.size() + "];";
+			return "return params.defaultWeight;";
+		StringBuilder s = new StringBuilder(METHODS);
+		s.append("def[] fieldValues = new def[" + score.fields.size() + "];");
+		s.append("def[] values = new def[" + score.fields.size() + "];");
 		for (int i = 0; i < score.fields.size(); i++) {
 			Field field = score.fields.get(i);
-			String escaper = field.value instanceof String ? "\"" : "";
-			String numDef = field.value instanceof Long ? "L" : "";
-			s += "fieldValues[" + i + "] = doc['" + field.name + "'].getValue();";
+			s.append("fieldValues[" + i + "] = doc[params.fields[" + i + "]].getValue();");
 			if (field.lowerLimit != null) {
-				s += "if (fieldValues[" + i + "] < " + field.lowerLimit + ") { return " + dWeight + "; }";
+				s.append("if (fieldValues[" + i + "] < params.lowerLimits[" + i + "]) { return params.defaultWeight; }");
 			}
 			if (field.upperLimit != null) {
-				s += "if (fieldValues[" + i + "] >  " + field.upperLimit + ") { return " + dWeight + "; }";
+				s.append("if (fieldValues[" + i + "] > params.upperLimits[" + i + "]) { return params.defaultWeight; }");
 			}
-			s += "values[" + i + "] = " + escaper + "" + field.value + "" + escaper + numDef + ";";
+			s.append("values[" + i + "] = " + cast("params.values[" + i + "]", field.value) + ";");
 		}
-		s += cases(score);
-		return s;
+		cases(score, s);
+		return s.toString();
 	}
 
-	private static String cases(Score score) {
-		String s = "";
+	private static void cases(Score score, StringBuilder s) {
 		boolean hadElse = false;
-		for (Case c : score.getCases()) {
+		int literal = 0;
+		Case[] cases = score.getCases();
+		for (int i = 0; i < cases.length; i++) {
+			Case c = cases[i];
 			if (!c.conditions.isEmpty()) {
-				s += conditions(c);
+				literal = conditions(c, i, literal, s);
 			} else {
-				s += "return " + c.weight + ";";
+				s.append("return params.weights[" + i + "];");
 				hadElse = true;
 				break;
 			}
 		}
 		if (!hadElse) {
-			s += "return " + score.getDefaultWeight() + ";"; // default case
+			s.append("return params.defaultWeight;"); // default case
 		}
-		return s;
 	}
 
-	private static String conditions(Case scoreCase) {
-		String s = "if (";
+	private static int conditions(Case scoreCase, int index, int literal, StringBuilder s) {
+		s.append("if (");
 		boolean firstCondition = true;
 		for (Condition con : scoreCase.conditions) {
 			if (!firstCondition) {
-				s += " && ";
+				s.append(" && ");
+			}
+			String value1 = operand(con.value1, literal);
+			if (con.value1 instanceof Number) {
+				literal++;
+			}
+			String value2 = operand(con.value2, literal);
+			if (con.value2 instanceof Number) {
+				literal++;
 			}
 			if (con.comparator == Comparator.EQUALS) {
-				s += "(" + con.value1 + ") != null && " + (con.value1) + ".equals(" + con.value2 + ")";
+				s.append("(" + value1 + ") != null && " + value1 + ".equals(" + value2 + ")");
 			} else {
-				String numDef1 = con.value1 instanceof Long ? "L" : "";
-				String numDef2 = con.value2 instanceof Long ? "L" : "";
-				s += con.value1 + numDef1 + " " + toString(con.comparator) + " " + con.value2 + numDef2;
+				s.append(value1 + " " + toString(con.comparator) + " " + value2);
 			}
 			firstCondition = false;
 		}
-		s += ") { return " + scoreCase.weight + "; } ";
-		return s;
+		s.append(") { return params.weights[" + index + "]; } ");
+		return literal;
+	}
+
+	// numbers are passed as parameters, everything else is a script expression
+	private static String operand(Object value, int literal) {
+		if (value instanceof Number)
+			return cast("params.literals[" + literal + "]", value);
+		return String.valueOf(value);
+	}
+
+	// parameters lose their exact number type on the wire
+	private static String cast(String param, Object value) {
+		if (value instanceof Long)
+			return "((Number) " + param + ").longValue()";
+		if (value instanceof Integer)
+			return "((Number) " + param + ").intValue()";
+		if (value instanceof Double)
+			return "((Number) " + param + ").doubleValue()";
+		if (value instanceof Float)
+			return "((Number) " + param + ").floatValue()";
+		return param;
 	}
 
 	private static String getDistanceMethod() {
@@ -85,7 +205,7 @@ class Script {
 		return s;
 	}
 
-	private static String getMethods(Score score) {
+	private static String getMethods() {
 		String s = getDistanceMethod();
 		s += "String substring(String value, int from, int to) { if (value == null || from == -1 || to == -1) { return null; } return value.substring(from, to); }";
 		s += "int indexOf(String value, String phrase) { if (value == null || phrase == null) { return -1; } return value.indexOf(phrase); }";
@@ -7,7 +7,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregation;
@@ -19,87 +30,406 @@ import com.greendelta.search.wrapper.SearchQuery;
 import com.greendelta.search.wrapper.SearchResult;
 import com.greendelta.search.wrapper.SearchSorting;
 import com.greendelta.search.wrapper.aggregations.SearchAggregation;
+import com.greendelta.search.wrapper.aggregations.results.AggregationResult;
+import com.greendelta.search.wrapper.es.Instrumentation.Phase;
 
 class Search {
 
+	// failures are reported to the instrumentation and return a failed result
 	static SearchResult<Map<String, Object>> run(EsRequest request, SearchQuery searchQuery) {
-		prepare(request, searchQuery);
 		try {
-			SearchResult<Map<String, Object>> result = new SearchResult<>();
+			prepare(request, searchQuery);
+		} catch (Exception e) {
+			failed(request, "search", e);
+			return failed(searchQuery);
+		}
+		return collect(request, searchQuery);
+	}
+
+	// executes a request that was already prepared for the search query
+	// an interrupt stops the search after the current page
+	static SearchResult<Map<String, Object>> collect(EsRequest request, SearchQuery searchQuery) {
+		EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+		try {
+			Cursor cursor = new Cursor(request, searchQuery);
 			EsResponse response = null;
-			boolean doContinue = true;
-			long totalHits = 0;
-			while (doContinue) {
-				if (!searchQuery.isPaged()) {
-					request.setFrom(result.data.size());
+			while (cursor.hasNext()) {
+				if (Thread.currentThread().isInterrupted()) {
+					result.cancelled = true;
+					break;
 				}
-				response = request.execute();
-				SearchHit[] hits = response.getHits();
-				for (SearchHit hit : hits) {
-					if (searchQuery.getFullResult()) {
-						result.data.add(hit.getSourceAsMap());
-					} else {
-						result.data.add(Collections.singletonMap("documentId", hit.getId()));
-					}
-				}
-				totalHits = response.getTotalHits();
-				doContinue = !searchQuery.isPaged() && result.data.size() != totalHits;
-				result.aggregations.addAll(Result.aggregations(response));
+				response = cursor.next();
+				add(request, result, response, searchQuery);
 			}
-			result.resultInfo.count = result.data.size();
-			Result.extend(result, totalHits, searchQuery);
-			return result;
+			return finish(result, response, searchQuery);
 		} catch (Exception e) {
-			// TODO handle exception
-			SearchResult<Map<String, Object>> result = new SearchResult<>();
-			Result.extend(result, 0, searchQuery);
-			return result;
+			return incomplete(request, result, e, searchQuery);
+		}
+	}
+
+	// continues a prepared request of which the first page was already executed
+	static SearchResult<Map<String, Object>> run(EsRequest request, EsResponse first, SearchQuery searchQuery)
+			throws IOException {
+		EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+		Cursor cursor = new Cursor(request, searchQuery);
+		EsResponse response = cursor.advance(first);
+		add(request, result, response, searchQuery);
+		while (cursor.hasNext()) {
+			response = cursor.next();
+			add(request, result, response, searchQuery);
 		}
+		return finish(result, response, searchQuery);
+	}
+
+	static SearchResult<Map<String, Object>> failed(SearchQuery searchQuery) {
+		EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+		result.failed = true;
+		return finish(result, null, searchQuery);
+	}
+
+	static CompletableFuture<SearchResult<Map<String, Object>>> runAsync(EsRequest request,
+			SearchQuery searchQuery) {
+		try {
+			prepare(request, searchQuery);
+		} catch (Exception e) {
+			failed(request, "search", e);
+			return CompletableFuture.completedFuture(failed(searchQuery));
+		}
+		return collectAsync(request, searchQuery);
+	}
+
+	// cancelling the returned future stops the search after the current page
+	static CompletableFuture<SearchResult<Map<String, Object>>> collectAsync(EsRequest request,
+			SearchQuery searchQuery) {
+		EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+		Cursor cursor = new Cursor(request, searchQuery);
+		CompletableFuture<SearchResult<Map<String, Object>>> future = new CompletableFuture<>();
+		collectAsync(request, cursor, result, searchQuery, future).whenComplete((response, e) -> {
+			if (e != null) {
+				future.complete(incomplete(request, result, e, searchQuery));
+			} else {
+				future.complete(finish(result, response, searchQuery));
+			}
+		});
+		return future;
+	}
+
+	private static CompletableFuture<EsResponse> collectAsync(EsRequest request, Cursor cursor,
+			EsSearchResult<Map<String, Object>> result, SearchQuery searchQuery, CompletableFuture<?> future) {
+		return cursor.nextAsync().thenCompose(response -> {
+			add(request, result, response, searchQuery);
+			if (!cursor.hasNext() || future.isDone())
+				return CompletableFuture.completedFuture(response);
+			return collectAsync(request, cursor, result, searchQuery, future);
+		});
+	}
+
+	private static void add(EsRequest request, EsSearchResult<Map<String, Object>> result, EsResponse response,
+			SearchQuery searchQuery) {
+		Instrumentation instrumentation = request.getConfig().instrumentation;
+		long start = System.nanoTime();
+		for (SearchHit hit : response.getHits()) {
+			result.data.add(data(hit, searchQuery));
+		}
+		instrumentation.latency(Phase.DECODE_HITS, System.nanoTime() - start);
+		result.aggregations.addAll(aggregations(request, response));
+		status(result, response);
+	}
+
+	static void status(EsSearchResult<?> result, EsResponse response) {
+		result.timedOut |= response.isTimedOut();
+		result.terminatedEarly |= response.isTerminatedEarly();
+		result.failedShards = Math.max(result.failedShards, response.getFailedShards());
+	}
+
+	// keeps the hits of the pages that were received before the failure
+	private static SearchResult<Map<String, Object>> incomplete(EsRequest request,
+			EsSearchResult<Map<String, Object>> result, Throwable e, SearchQuery searchQuery) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		failed(request, "search", cause);
+		if (Thread.currentThread().isInterrupted()) {
+			result.cancelled = true;
+		} else if (cause instanceof ElasticsearchTimeoutException) {
+			result.timedOut = true;
+		} else {
+			result.failed = true;
+		}
+		return finish(result, null, searchQuery);
+	}
+
+	private static List<AggregationResult> aggregations(EsRequest request, EsResponse response) {
+		long start = System.nanoTime();
+		List<AggregationResult> aggregations = Result.aggregations(response);
+		request.getConfig().instrumentation.latency(Phase.MAP_AGGREGATIONS, System.nanoTime() - start);
+		return aggregations;
+	}
+
+	private static void failed(EsRequest request, String operation, Throwable e) {
+		request.getConfig().instrumentation.failure(operation, e);
+	}
+
+	// unpaged searches collect all hits and do not track total hits
+	private static SearchResult<Map<String, Object>> finish(SearchResult<Map<String, Object>> result,
+			EsResponse response, SearchQuery searchQuery) {
+		result.resultInfo.count = result.data.size();
+		if (!searchQuery.isPaged()) {
+			Result.extend(result, result.data.size(), true, searchQuery);
+		} else if (response == null) {
+			Result.extend(result, 0, true, searchQuery);
+		} else {
+			Result.extend(result, response.getTotalHits(), response.isTotalHitsExact(), searchQuery);
+		}
+		return result;
+	}
+
+	// aggregations collect every matching document, so counting them exactly
+	// costs nothing extra
+	static SearchResult<Map<String, Object>> aggregate(EsRequest request, SearchQuery searchQuery) {
+		try {
+			prepareSummary(request, searchQuery);
+			setupAggregations(request, searchQuery);
+			return summary(request, request.execute(), searchQuery);
+		} catch (Exception e) {
+			failed(request, "aggregate", e);
+			return failed(searchQuery);
+		}
+	}
+
+	static CompletableFuture<SearchResult<Map<String, Object>>> aggregateAsync(EsRequest request,
+			SearchQuery searchQuery) {
+		try {
+			prepareSummary(request, searchQuery);
+			setupAggregations(request, searchQuery);
+		} catch (Exception e) {
+			failed(request, "aggregate", e);
+			return CompletableFuture.completedFuture(failed(searchQuery));
+		}
+		return request.executeAsync().handle((response, e) -> {
+			if (e != null) {
+				failed(request, "aggregate", e);
+				return failed(searchQuery);
+			}
+			return summary(request, response, searchQuery);
+		});
+	}
+
+	static long count(EsRequest request, SearchQuery searchQuery) {
+		try {
+			prepareSummary(request, searchQuery);
+			return request.execute().getTotalHits();
+		} catch (Exception e) {
+			failed(request, "count", e);
+			return 0;
+		}
+	}
+
+	static CompletableFuture<Long> countAsync(EsRequest request, SearchQuery searchQuery) {
+		try {
+			prepareSummary(request, searchQuery);
+		} catch (Exception e) {
+			failed(request, "count", e);
+			return CompletableFuture.completedFuture(0L);
+		}
+		return request.executeAsync().handle((response, e) -> {
+			if (e != null) {
+				failed(request, "count", e);
+				return 0L;
+			}
+			return response.getTotalHits();
+		});
+	}
+
+	private static void prepareSummary(EsRequest request, SearchQuery searchQuery) {
+		request.setSize(0);
+		request.setTrackTotalHits(true);
+		setupTimeout(request);
+		request.setQuery(query(request, searchQuery));
+	}
+
+	private static SearchResult<Map<String, Object>> summary(EsRequest request, EsResponse response,
+			SearchQuery searchQuery) {
+		EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+		result.aggregations.addAll(aggregations(request, response));
+		status(result, response);
+		result.resultInfo.count = 0;
+		Result.extend(result, response.getTotalHits(), true, searchQuery);
+		return result;
 	}
 
 	static Set<String> ids(EsRequest request, SearchQuery searchQuery) {
-		prepare(request, searchQuery);
+		request.setFetchSource(false);
+		try {
+			prepareHits(request, searchQuery);
+		} catch (Exception e) {
+			failed(request, "ids", e);
+			return new HashSet<>();
+		}
+		return collectIds(request, searchQuery);
+	}
+
+	static Set<String> collectIds(EsRequest request, SearchQuery searchQuery) {
 		try {
 			Set<String> ids = new HashSet<>();
-			EsResponse response = null;
-			boolean doContinue = true;
-			long totalHits = 0;
-			while (doContinue) {
-				if (!searchQuery.isPaged()) {
-					request.setFrom(ids.size());
-				}
-				response = request.execute();
-				SearchHit[] hits = response.getHits();
+			Cursor cursor = new Cursor(request, searchQuery);
+			while (cursor.hasNext()) {
+				SearchHit[] hits = cursor.next().getHits();
 				for (SearchHit hit : hits) {
 					ids.add(hit.getId());
 				}
-				totalHits = response.getTotalHits();
-				doContinue = !searchQuery.isPaged() && ids.size() != totalHits;
 			}
 			return ids;
 		} catch (Exception e) {
-			// TODO handle exception
+			failed(request, "ids", e);
 			return new HashSet<>();
 		}
 
 	}
 
-	private static EsRequest prepare(EsRequest request, SearchQuery searchQuery) {
-		setupPaging(request, searchQuery);
-		setupSorting(request, searchQuery);
+	static CompletableFuture<Set<String>> idsAsync(EsRequest request, SearchQuery searchQuery) {
+		request.setFetchSource(false);
+		try {
+			prepareHits(request, searchQuery);
+		} catch (Exception e) {
+			failed(request, "ids", e);
+			return CompletableFuture.completedFuture(new HashSet<>());
+		}
+		return collectIdsAsync(request, searchQuery);
+	}
+
+	static CompletableFuture<Set<String>> collectIdsAsync(EsRequest request, SearchQuery searchQuery) {
+		Set<String> ids = new HashSet<>();
+		Cursor cursor = new Cursor(request, searchQuery);
+		return collectIdsAsync(cursor, ids).exceptionally(e -> {
+			failed(request, "ids", e);
+			return new HashSet<>();
+		});
+	}
+
+	private static CompletableFuture<Set<String>> collectIdsAsync(Cursor cursor, Set<String> ids) {
+		return cursor.nextAsync().thenCompose(response -> {
+			for (SearchHit hit : response.getHits()) {
+				ids.add(hit.getId());
+			}
+			if (!cursor.hasNext())
+				return CompletableFuture.completedFuture(ids);
+			return collectIdsAsync(cursor, ids);
+		});
+	}
+
+	// a query that can not be prepared results in an empty stream, failures
+	// of later pages are thrown while the stream is consumed
+	static Stream<SearchHit> stream(EsRequest request, SearchQuery searchQuery) {
+		try {
+			prepareHits(request, searchQuery);
+		} catch (Exception e) {
+			failed(request, "stream", e);
+			return Stream.empty();
+		}
+		Hits hits = new Hits(new Cursor(request, searchQuery));
+		Spliterator<SearchHit> spliterator = Spliterators.spliteratorUnknownSize(hits,
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(hits::close);
+	}
+
+	static void project(EsRequest request, SearchQuery searchQuery, Projection projection,
+			Consumer<Object[]> consumer) throws IOException {
+		prepareHits(request, searchQuery);
+		projection.setup(request);
+		Cursor cursor = new Cursor(request, searchQuery);
+		while (cursor.hasNext()) {
+			for (SearchHit hit : cursor.next().getHits()) {
+				consumer.accept(projection.read(hit));
+			}
+		}
+	}
+
+	// the source is parsed for each call instead of with getSourceAsMap, which
+	// keeps the map on the hit; hits of cached responses are shared, so each
+	// caller needs its own map
+	static Map<String, Object> data(SearchHit hit, SearchQuery searchQuery) {
+		if (!searchQuery.getFullResult())
+			return Collections.singletonMap("documentId", hit.getId());
+		BytesReference source = hit.getSourceRef();
+		if (source == null)
+			return null;
+		return XContentHelper.convertToMap(source, false, XContentType.JSON).v2();
+	}
+
+	static EsRequest prepare(EsRequest request, SearchQuery searchQuery) {
+		shape(request, searchQuery);
+		return bind(request, searchQuery);
+	}
+
+	// ids, streams and projections only read hits, so the aggregations of the
+	// query are not requested
+	static EsRequest prepareHits(EsRequest request, SearchQuery searchQuery) {
+		shapeHits(request, searchQuery);
+		return bind(request, searchQuery);
+	}
+
+	// sets up the parts of a request that are the same for all searches of a
+	// prepared search
+	static EsRequest shape(EsRequest request, SearchQuery searchQuery) {
+		shapeHits(request, searchQuery);
 		setupAggregations(request, searchQuery);
-		request.setQuery(Query.create(searchQuery));
 		return request;
 	}
 
-	private static void setupPaging(EsRequest request, SearchQuery searchQuery) {
-		int start = (searchQuery.getPage() - 1) * searchQuery.getPageSize();
-		if (start > 0) {
-			request.setFrom(start);
+	private static void shapeHits(EsRequest request, SearchQuery searchQuery) {
+		setupTotalHits(request, searchQuery);
+		setupTimeout(request);
+		// terminate_after would end unpaged searches after the first page
+		Integer terminateAfter = request.getConfig().terminateAfter;
+		if (terminateAfter != null && searchQuery.isPaged()) {
+			request.setTerminateAfter(terminateAfter);
+		}
+		setupSorting(request, searchQuery);
+		if (!searchQuery.getFullResult()) {
+			request.setFetchSource(false);
 		}
+	}
+
+	// sets up the parts of a request that change between searches of the same
+	// shape
+	static EsRequest bind(EsRequest request, SearchQuery searchQuery) {
+		setupPaging(request, searchQuery);
+		request.setQuery(query(request, searchQuery));
+		return request;
+	}
+
+	private static QueryBuilder query(EsRequest request, SearchQuery searchQuery) {
+		long start = System.nanoTime();
+		QueryBuilder query = Query.create(searchQuery);
+		request.getConfig().instrumentation.latency(Phase.BUILD_QUERY, System.nanoTime() - start);
+		return query;
+	}
+
+	private static void setupTotalHits(EsRequest request, SearchQuery searchQuery) {
+		if (!searchQuery.isPaged()) {
+			request.setTrackTotalHits(false);
+		} else {
+			Integer trackTotalHitsUpTo = request.getConfig().trackTotalHitsUpTo;
+			if (trackTotalHitsUpTo != null) {
+				request.setTrackTotalHitsUpTo(trackTotalHitsUpTo);
+			}
+		}
+	}
+
+	private static void setupTimeout(EsRequest request) {
+		Long timeout = request.getConfig().searchTimeout;
+		if (timeout != null) {
+			request.setTimeout(timeout);
+		}
+	}
+
+	private static void setupPaging(EsRequest request, SearchQuery searchQuery) {
 		if (!searchQuery.isPaged()) {
-			request.setSize(10000);
+			request.setSize(Cursor.PAGE_SIZE);
 		} else {
+			int start = (searchQuery.getPage() - 1) * searchQuery.getPageSize();
+			if (start > 0) {
+				request.setFrom(start);
+			}
 			if (searchQuery.getPageSize() > 0) {
 				request.setSize(searchQuery.getPageSize());
 			} else {
@@ -113,20 +443,52 @@ class Search {
 			SortOrder value = entry.getValue() == SearchSorting.ASC ? SortOrder.ASC : SortOrder.DESC;
 			request.addSort(entry.getKey(), value);
 		}
+		if (searchQuery.isPaged())
+			return;
+		// without a sort search_after would order the hits only by the
+		// tiebreaker and skip scoring
+		if (searchQuery.getSortBy().isEmpty()) {
+			request.addSort("_score", SortOrder.DESC);
+		}
+		request.addSort(request.getConfig().tiebreaker, SortOrder.ASC);
 	}
 
-	private static void setupAggregations(EsRequest request, SearchQuery searchQuery) {
+	static void setupAggregations(EsRequest request, SearchQuery searchQuery) {
 		for (SearchAggregation aggregation : searchQuery.getAggregations()) {
-			request.addAggregation(com.greendelta.search.wrapper.es.Aggregation.builder(aggregation));
+			request.addAggregation(com.greendelta.search.wrapper.es.Aggregation.builder(aggregation, request.getConfig()));
 		}
 	}
 
 	interface EsRequest {
 
+		Config getConfig();
+
 		void setFrom(int from);
 
 		void setSize(int size);
 
+		void setSearchAfter(Object[] values);
+
+		void setFetchSource(boolean fetch);
+
+		void setFetchSource(String[] includes, String[] excludes);
+
+		void addDocValueField(String field);
+
+		void setSlice(int id, int max);
+
+		void setTrackTotalHits(boolean track);
+
+		void setTrackTotalHitsUpTo(int limit);
+
+		void setScroll(long keepAlive);
+
+		void setTimeout(long timeout);
+
+		void setTerminateAfter(int maxHits);
+
+		void setRouting(String routing);
+
 		void addSort(String field, SortOrder order);
 
 		void addAggregation(AggregationBuilder aggregation);
@@ -135,14 +497,30 @@ class Search {
 
 		EsResponse execute() throws IOException;
 
+		CompletableFuture<EsResponse> executeAsync();
+
+		EsResponse scroll(String scrollId) throws IOException;
+
+		void clearScroll(String scrollId);
+
 	}
 
 	interface EsResponse {
 
 		SearchHit[] getHits();
 
+		String getScrollId();
+
 		long getTotalHits();
 
+		boolean isTotalHitsExact();
+
+		boolean isTimedOut();
+
+		boolean isTerminatedEarly();
+
+		int getFailedShards();
+
 		List<Aggregation> getAggregations();
 
 		List<? extends Bucket> getTermBuckets(Aggregation aggregation);
@@ -0,0 +1,175 @@
+package com.greendelta.search.wrapper.es;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.SearchResult;
+import com.greendelta.search.wrapper.es.Search.EsRequest;
+import com.greendelta.search.wrapper.es.Search.EsResponse;
+
+/**
+ * Exports all hits of an unpaged query by splitting it into sliced scrolls
+ * that are fetched concurrently. Sorting is ignored, aggregations are
+ * requested once in a separate request without hits. When one slice fails,
+ * the other slices stop after their current page.
+ */
+class Slices {
+
+	private static final long KEEP_ALIVE = 60000;
+
+	private static void check(int slices) {
+		if (slices <= 0)
+			throw new IllegalArgumentException("The number of slices must be positive: " + slices);
+	}
+
+	// timeouts and failed shards of the slices are merged into the result
+	static SearchResult<Map<String, Object>> run(Config config, Supplier<EsRequest> requests,
+			SearchQuery searchQuery, int slices, Executor executor) {
+		check(slices);
+		AtomicBoolean stopped = new AtomicBoolean();
+		try {
+			List<CompletableFuture<EsSearchResult<Map<String, Object>>>> futures = new ArrayList<>();
+			for (int i = 0; i < slices; i++) {
+				int id = i;
+				futures.add(stopOnFailure(CompletableFuture.supplyAsync(() -> {
+					EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+					result.resultInfo.totalCount = collect(requests.get(), searchQuery, id, slices, result, stopped,
+							hit -> result.data.add(Search.data(hit, searchQuery)));
+					return result;
+				}, executor), stopped));
+			}
+			CompletableFuture<EsSearchResult<Map<String, Object>>> aggregations = CompletableFuture
+					.supplyAsync(() -> aggregations(requests.get(), searchQuery), executor);
+			EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+			long totalHits = 0;
+			for (CompletableFuture<EsSearchResult<Map<String, Object>>> future : futures) {
+				EsSearchResult<Map<String, Object>> slice = future.join();
+				result.data.addAll(slice.data);
+				totalHits += slice.resultInfo.totalCount;
+				merge(result, slice);
+			}
+			EsSearchResult<Map<String, Object>> summary = aggregations.join();
+			result.aggregations.addAll(summary.aggregations);
+			merge(result, summary);
+			result.resultInfo.count = result.data.size();
+			Result.extend(result, totalHits, true, searchQuery);
+			return result;
+		} catch (Exception e) {
+			config.instrumentation.failure("search", e);
+			return Search.failed(searchQuery);
+		}
+	}
+
+	static Set<String> ids(Config config, Supplier<EsRequest> requests, SearchQuery searchQuery, int slices,
+			Executor executor) {
+		check(slices);
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		AtomicBoolean stopped = new AtomicBoolean();
+		try {
+			List<CompletableFuture<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < slices; i++) {
+				int id = i;
+				futures.add(stopOnFailure(CompletableFuture.supplyAsync(() -> {
+					EsRequest request = requests.get();
+					request.setFetchSource(false);
+					return collect(request, searchQuery, id, slices, new EsSearchResult<>(), stopped,
+							hit -> ids.add(hit.getId()));
+				}, executor), stopped));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+			return ids;
+		} catch (Exception e) {
+			config.instrumentation.failure("ids", e);
+			return ConcurrentHashMap.newKeySet();
+		}
+	}
+
+	private static <T> CompletableFuture<T> stopOnFailure(CompletableFuture<T> future, AtomicBoolean stopped) {
+		return future.whenComplete((result, e) -> {
+			if (e != null) {
+				stopped.set(true);
+			}
+		});
+	}
+
+	private static void merge(EsSearchResult<?> result, EsSearchResult<?> part) {
+		result.timedOut |= part.timedOut;
+		result.terminatedEarly |= part.terminatedEarly;
+		result.failedShards = Math.max(result.failedShards, part.failedShards);
+		result.cancelled |= part.cancelled;
+	}
+
+	private static long collect(EsRequest request, SearchQuery searchQuery, int id, int slices,
+			EsSearchResult<?> status, AtomicBoolean stopped, Consumer<SearchHit> consumer) {
+		if (stopped.get())
+			return 0;
+		request.setSize(Cursor.PAGE_SIZE);
+		request.addSort("_doc", SortOrder.ASC);
+		request.setQuery(Query.create(searchQuery));
+		if (!searchQuery.getFullResult()) {
+			request.setFetchSource(false);
+		}
+		if (slices > 1) {
+			request.setSlice(id, slices);
+		}
+		request.setScroll(KEEP_ALIVE);
+		String scrollId = null;
+		try {
+			EsResponse response = request.execute();
+			scrollId = response.getScrollId();
+			long totalHits = response.getTotalHits();
+			while (response.getHits().length > 0) {
+				Search.status(status, response);
+				for (SearchHit hit : response.getHits()) {
+					consumer.accept(hit);
+				}
+				if (stopped.get()) {
+					status.cancelled = true;
+					break;
+				}
+				response = request.scroll(scrollId);
+				scrollId = response.getScrollId();
+			}
+			Search.status(status, response);
+			return totalHits;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (scrollId != null) {
+				request.clearScroll(scrollId);
+			}
+		}
+	}
+
+	private static EsSearchResult<Map<String, Object>> aggregations(EsRequest request, SearchQuery searchQuery) {
+		EsSearchResult<Map<String, Object>> result = new EsSearchResult<>();
+		if (searchQuery.getAggregations().isEmpty())
+			return result;
+		request.setSize(0);
+		request.setQuery(Query.create(searchQuery));
+		Search.setupAggregations(request, searchQuery);
+		try {
+			EsResponse response = request.execute();
+			result.aggregations.addAll(Result.aggregations(response));
+			Search.status(result, response);
+			return result;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
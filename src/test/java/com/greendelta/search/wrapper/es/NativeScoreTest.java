@@ -0,0 +1,279 @@
+package com.greendelta.search.wrapper.es;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MatchAllQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder.FilterFunctionBuilder;
+import org.junit.Test;
+
+import com.greendelta.search.wrapper.score.Case;
+import com.greendelta.search.wrapper.score.Comparator;
+import com.greendelta.search.wrapper.score.Condition;
+import com.greendelta.search.wrapper.score.Field;
+import com.greendelta.search.wrapper.score.Score;
+
+/**
+ * Checks that the function_score of a score gives each document the weight
+ * of the painless script. The functions are evaluated against field values
+ * like a cluster would, the script is evaluated with the semantics of the
+ * source that Script generates: doc values of integer fields are longs, of
+ * decimal fields doubles, and constants keep their number type.
+ */
+public class NativeScoreTest {
+
+	private static final Pattern OPERAND = Pattern.compile("^(fieldValues|values)\\[(\\d+)\\]$");
+
+	@Test
+	public void testLimits() {
+		Field field = new Field("validFrom", 2015L);
+		field.lowerLimit = 2000d;
+		field.upperLimit = 2020d;
+		Score score = new Score();
+		score.addField(field);
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.IS_GREATER_OR_EQUAL_THAN, 1990L)));
+		assertSameWeights(score, "validFrom", 1995L, 2000L, 2010L, 2020L, 2025L);
+	}
+
+	@Test
+	public void testElseCase() {
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015L));
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.IS_GREATER_THAN, 2010L)));
+		score.addCase(new Case(2));
+		score.addCase(new Case(5, new Condition("fieldValues[0]", Comparator.IS_LESS_THAN, 2000L)));
+		assertSameWeights(score, "validFrom", 1990L, 2010L, 2011L);
+	}
+
+	@Test
+	public void testCasesInOrder() {
+		Score score = new Score();
+		score.addField(new Field("amount", 10d));
+		score.addCase(new Case(4, new Condition("fieldValues[0]", Comparator.IS_GREATER_OR_EQUAL_THAN, 100d)));
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.IS_GREATER_OR_EQUAL_THAN, "values[0]")));
+		score.addCase(new Case(2, new Condition("fieldValues[0]", Comparator.IS_LESS_THAN, 10)));
+		assertSameWeights(score, "amount", 5.5d, 10d, 99.9d, 100d, 150d);
+	}
+
+	@Test
+	public void testComparators() {
+		for (Comparator comparator : new Comparator[] { Comparator.IS_LESS_THAN, Comparator.IS_LESS_OR_EQUAL_THAN,
+				Comparator.IS_GREATER_THAN, Comparator.IS_GREATER_OR_EQUAL_THAN, Comparator.IS }) {
+			Score score = new Score();
+			score.addField(new Field("validFrom", 2015L));
+			score.addCase(new Case(3, new Condition("fieldValues[0]", comparator, 2010L)));
+			assertSameWeights(score, "validFrom", 2009L, 2010L, 2011L);
+		}
+	}
+
+	@Test
+	public void testFlippedComparators() {
+		for (Comparator comparator : new Comparator[] { Comparator.IS_LESS_THAN, Comparator.IS_LESS_OR_EQUAL_THAN,
+				Comparator.IS_GREATER_THAN, Comparator.IS_GREATER_OR_EQUAL_THAN }) {
+			Score score = new Score();
+			score.addField(new Field("validFrom", 2010L));
+			score.addCase(new Case(3, new Condition("values[0]", comparator, "fieldValues[0]")));
+			score.addCase(new Case(2, new Condition(2012L, comparator, "fieldValues[0]")));
+			assertSameWeights(score, "validFrom", 2009L, 2010L, 2011L, 2012L, 2013L);
+		}
+	}
+
+	@Test
+	public void testAllConditionsOfCase() {
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015L));
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.IS_GREATER_THAN, 2000L),
+				new Condition("fieldValues[0]", Comparator.IS_LESS_OR_EQUAL_THAN, "values[0]")));
+		assertSameWeights(score, "validFrom", 1999L, 2000L, 2001L, 2015L, 2016L);
+	}
+
+	@Test
+	public void testIsWithOtherNumberType() {
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015));
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.IS, "values[0]")));
+		assertSameWeights(score, "validFrom", 2014L, 2015L);
+	}
+
+	@Test
+	public void testEqualsOnKeyword() {
+		Score score = new Score();
+		score.addField(new Field("type", "process"));
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.EQUALS, "values[0]")));
+		assertSameWeights(score, "type", "process", "flow");
+	}
+
+	@Test
+	public void testEqualsOnNumbersUsesScript() {
+		// the script compares a long doc value with an integer constant with
+		// Long.equals, which is false, while a term query would match 2015
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015));
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.EQUALS, "values[0]")));
+		Map<String, Object> doc = Collections.singletonMap("validFrom", 2015L);
+		assertTrue(matches(QueryBuilders.termQuery("validFrom", 2015), doc));
+		assertEquals(score.getDefaultWeight(), script(score, doc), 0);
+		assertNull(NativeScore.apply(QueryBuilders.matchAllQuery(), score));
+	}
+
+	@Test
+	public void testDistanceUsesScript() {
+		Score score = new Score();
+		score.addField(new Field("latitude", 52.5d));
+		score.addField(new Field("longitude", 13.4d));
+		score.addCase(new Case(3, new Condition("getDistance(fieldValues[0], fieldValues[1], values[0], values[1])",
+				Comparator.IS_LESS_THAN, 10d)));
+		assertNull(NativeScore.apply(QueryBuilders.matchAllQuery(), score));
+	}
+
+	@Test
+	public void testFieldToFieldUsesScript() {
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015L));
+		score.addField(new Field("validUntil", 2020L));
+		score.addCase(new Case(3, new Condition("fieldValues[0]", Comparator.IS_LESS_THAN, "fieldValues[1]")));
+		assertNull(NativeScore.apply(QueryBuilders.matchAllQuery(), score));
+	}
+
+	@Test
+	public void testWithoutCases() {
+		Score score = new Score();
+		score.addField(new Field("validFrom", 2015L));
+		assertSameWeights(score, "validFrom", 2015L);
+	}
+
+	private void assertSameWeights(Score score, String field, Object... values) {
+		FunctionScoreQueryBuilder query = (FunctionScoreQueryBuilder) NativeScore
+				.apply(QueryBuilders.matchAllQuery(), score);
+		assertNotNull(query);
+		for (Object value : values) {
+			Map<String, Object> doc = Collections.singletonMap(field, value);
+			assertEquals(field + " = " + value, (float) script(score, doc), weight(query, doc), 0);
+		}
+	}
+
+	// score mode "first": the weight of the first function with a matching
+	// filter
+	private float weight(FunctionScoreQueryBuilder query, Map<String, Object> doc) {
+		for (FilterFunctionBuilder function : query.filterFunctionBuilders()) {
+			if (matches(function.getFilter(), doc))
+				return function.getScoreFunction().getWeight();
+		}
+		throw new AssertionError("No function matched " + doc);
+	}
+
+	private boolean matches(QueryBuilder filter, Map<String, Object> doc) {
+		if (filter instanceof MatchAllQueryBuilder)
+			return true;
+		if (filter instanceof TermQueryBuilder) {
+			TermQueryBuilder term = (TermQueryBuilder) filter;
+			return compare(doc.get(term.fieldName()), term.value()) == 0;
+		}
+		if (filter instanceof RangeQueryBuilder) {
+			RangeQueryBuilder range = (RangeQueryBuilder) filter;
+			Object value = doc.get(range.fieldName());
+			if (range.from() != null) {
+				int c = compare(value, range.from());
+				if (c < 0 || c == 0 && !range.includeLower())
+					return false;
+			}
+			if (range.to() != null) {
+				int c = compare(value, range.to());
+				if (c > 0 || c == 0 && !range.includeUpper())
+					return false;
+			}
+			return true;
+		}
+		BoolQueryBuilder bool = (BoolQueryBuilder) filter;
+		for (QueryBuilder clause : bool.filter()) {
+			if (!matches(clause, doc))
+				return false;
+		}
+		if (bool.should().isEmpty())
+			return true;
+		for (QueryBuilder clause : bool.should()) {
+			if (matches(clause, doc))
+				return true;
+		}
+		return false;
+	}
+
+	// term and range queries compare numbers by value and other values as
+	// terms
+	private int compare(Object docValue, Object value) {
+		if (docValue instanceof Number && value instanceof Number)
+			return Double.compare(((Number) docValue).doubleValue(), ((Number) value).doubleValue());
+		return docValue.equals(value) ? 0 : 1;
+	}
+
+	private double script(Score score, Map<String, Object> doc) {
+		Object[] fieldValues = new Object[score.fields.size()];
+		Object[] values = new Object[score.fields.size()];
+		for (int i = 0; i < fieldValues.length; i++) {
+			Field field = score.fields.get(i);
+			fieldValues[i] = doc.get(field.name);
+			if (field.lowerLimit != null && compare(fieldValues[i], field.lowerLimit) < 0)
+				return score.getDefaultWeight();
+			if (field.upperLimit != null && compare(fieldValues[i], field.upperLimit) > 0)
+				return score.getDefaultWeight();
+			values[i] = field.value;
+		}
+		for (Case c : score.getCases()) {
+			if (c.conditions.isEmpty())
+				return c.weight;
+			boolean matches = true;
+			for (Condition condition : c.conditions) {
+				Object value1 = operand(condition.value1, fieldValues, values);
+				Object value2 = operand(condition.value2, fieldValues, values);
+				matches &= holds(value1, condition.comparator, value2);
+			}
+			if (matches)
+				return c.weight;
+		}
+		return score.getDefaultWeight();
+	}
+
+	private Object operand(Object operand, Object[] fieldValues, Object[] values) {
+		if (operand instanceof Number)
+			return operand;
+		Matcher matcher = OPERAND.matcher((String) operand);
+		if (!matcher.matches())
+			throw new IllegalArgumentException("Not evaluated: " + operand);
+		int index = Integer.parseInt(matcher.group(2));
+		return matcher.group(1).equals("fieldValues") ? fieldValues[index] : values[index];
+	}
+
+	// EQUALS is translated to equals, which compares the number types, the
+	// other comparators are painless operators that promote numbers
+	private boolean holds(Object value1, Comparator comparator, Object value2) {
+		if (comparator == Comparator.EQUALS)
+			return value1 != null && value1.equals(value2);
+		int c = compare(value1, value2);
+		switch (comparator) {
+		case IS_LESS_THAN:
+			return c < 0;
+		case IS_LESS_OR_EQUAL_THAN:
+			return c <= 0;
+		case IS_GREATER_THAN:
+			return c > 0;
+		case IS_GREATER_OR_EQUAL_THAN:
+			return c >= 0;
+		default:
+			return c == 0;
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.greendelta.search.wrapper.es;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.Test;
+
+import com.greendelta.search.wrapper.Conjunction;
+import com.greendelta.search.wrapper.MultiSearchFilter;
+import com.greendelta.search.wrapper.SearchFilter;
+import com.greendelta.search.wrapper.SearchFilterValue;
+import com.greendelta.search.wrapper.SearchQuery;
+import com.greendelta.search.wrapper.SearchQueryBuilder;
+
+/**
+ * Compares the serialized queries that are created for search filters with
+ * the queries they are meant to produce.
+ */
+public class QueryTest {
+
+	@Test
+	public void testNoFilter() {
+		assertQuery(QueryBuilders.matchAllQuery(), new SearchQueryBuilder().build());
+	}
+
+	@Test
+	public void testTermIsConstantScore() {
+		SearchQuery query = new SearchQueryBuilder().filter("type", SearchFilterValue.term("PROCESS")).build();
+		assertQuery(QueryBuilders.constantScoreQuery(QueryBuilders.termQuery("type", "PROCESS")), query);
+	}
+
+	@Test
+	public void testAndFiltersAreSortedFilters() {
+		SearchQuery query = new SearchQueryBuilder()
+				.filter("type", SearchFilterValue.term("PROCESS"))
+				.filter("category", SearchFilterValue.term(Arrays.asList("b", "a")))
+				.build();
+		assertQuery(QueryBuilders.constantScoreQuery(QueryBuilders.boolQuery()
+				.filter(QueryBuilders.termsQuery("category", Arrays.asList("b", "a")))
+				.filter(QueryBuilders.termQuery("type", "PROCESS"))), query);
+	}
+
+	@Test
+	public void testPhraseKeepsScoring() {
+		SearchQuery query = new SearchQueryBuilder()
+				.filter("type", SearchFilterValue.term("PROCESS"))
+				.filter("name", SearchFilterValue.phrase("hard coal"))
+				.build();
+		assertQuery(QueryBuilders.boolQuery()
+				.must(QueryBuilders.matchPhraseQuery("name", "hard coal"))
+				.filter(QueryBuilders.termQuery("type", "PROCESS")), query);
+	}
+
+	@Test
+	public void testBoostedTermKeepsScoring() {
+		SearchFilterValue value = SearchFilterValue.term("PROCESS");
+		value.boost = 2f;
+		SearchQuery query = new SearchQueryBuilder().filter("type", value).build();
+		assertQuery(QueryBuilders.termQuery("type", "PROCESS").boost(2f), query);
+	}
+
+	@Test
+	public void testAndValuesAreFlattened() {
+		SearchQuery query = query("name", Conjunction.AND, SearchFilterValue.term("coal"),
+				SearchFilterValue.phrase("hard coal"));
+		query.getFilters().add(filter("type", Conjunction.AND, SearchFilterValue.term("PROCESS")));
+		assertQuery(QueryBuilders.boolQuery()
+				.must(QueryBuilders.matchPhraseQuery("name", "hard coal"))
+				.filter(QueryBuilders.termQuery("name", "coal"))
+				.filter(QueryBuilders.termQuery("type", "PROCESS")), query);
+	}
+
+	@Test
+	public void testOrTermsAreMerged() {
+		SearchQuery query = query("type", Conjunction.OR, SearchFilterValue.term("PROCESS"),
+				SearchFilterValue.term(Arrays.asList("FLOW", "")));
+		assertQuery(QueryBuilders.constantScoreQuery(
+				QueryBuilders.termsQuery("type", Arrays.asList("FLOW", "PROCESS"))), query);
+	}
+
+	@Test
+	public void testOrWithPhrase() {
+		SearchQuery query = query("name", Conjunction.OR, SearchFilterValue.term("coal"),
+				SearchFilterValue.phrase("hard coal"));
+		assertQuery(QueryBuilders.boolQuery()
+				.should(QueryBuilders.matchPhraseQuery("name", "hard coal"))
+				.should(QueryBuilders.termQuery("name", "coal")), query);
+	}
+
+	@Test
+	public void testNestedAnd() {
+		SearchQuery query = query("category.parent.name", Conjunction.AND, SearchFilterValue.term("energy"));
+		assertQuery(QueryBuilders.constantScoreQuery(QueryBuilders.nestedQuery("category",
+				QueryBuilders.nestedQuery("category.parent",
+						QueryBuilders.termQuery("category.parent.name", "energy"), ScoreMode.Total),
+				ScoreMode.Total)), query);
+	}
+
+	@Test
+	public void testNestedOrIsNestedOnce() {
+		SearchQuery query = query("category.name", Conjunction.OR, SearchFilterValue.term("coal"),
+				SearchFilterValue.wildcard("energ*"));
+		assertQuery(QueryBuilders.nestedQuery("category", QueryBuilders.boolQuery()
+				.should(QueryBuilders.wildcardQuery("category.name", "energ*"))
+				.should(QueryBuilders.termQuery("category.name", "coal")),
+				ScoreMode.Total), query);
+	}
+
+	@Test
+	public void testMultiFieldOr() {
+		SearchQuery query = multiFilter(Conjunction.OR, SearchFilterValue.phrase("hard coal"), "name",
+				"category.name", "description", "category.description");
+		assertQuery(QueryBuilders.boolQuery()
+				.should(QueryBuilders.matchPhraseQuery("name", "hard coal"))
+				.should(QueryBuilders.matchPhraseQuery("description", "hard coal"))
+				.should(QueryBuilders.nestedQuery("category", QueryBuilders.boolQuery()
+						.should(QueryBuilders.matchPhraseQuery("category.name", "hard coal"))
+						.should(QueryBuilders.matchPhraseQuery("category.description", "hard coal")),
+						ScoreMode.Total)), query);
+	}
+
+	@Test
+	public void testMultiFieldAnd() {
+		SearchQuery query = multiFilter(Conjunction.AND, SearchFilterValue.term("coal"), "name", "description");
+		assertQuery(QueryBuilders.constantScoreQuery(QueryBuilders.boolQuery()
+				.should(QueryBuilders.termQuery("name", "coal"))
+				.should(QueryBuilders.termQuery("description", "coal"))), query);
+	}
+
+	@Test
+	public void testMultiFieldWithAndFilter() {
+		SearchQuery query = multiFilter(Conjunction.OR, SearchFilterValue.term("coal"), "name", "description");
+		query.getFilters().add(filter("type", Conjunction.AND, SearchFilterValue.term("PROCESS")));
+		assertQuery(QueryBuilders.constantScoreQuery(QueryBuilders.boolQuery()
+				.filter(QueryBuilders.termQuery("type", "PROCESS"))
+				.filter(QueryBuilders.boolQuery()
+						.should(QueryBuilders.termQuery("name", "coal"))
+						.should(QueryBuilders.termQuery("description", "coal")))), query);
+	}
+
+	private void assertQuery(QueryBuilder expected, SearchQuery query) {
+		assertEquals(expected.toString(), Query.create(query).toString());
+	}
+
+	private SearchQuery query(String field, Conjunction conjunction, SearchFilterValue... values) {
+		SearchQuery query = new SearchQueryBuilder().build();
+		query.getFilters().add(filter(field, conjunction, values));
+		return query;
+	}
+
+	// replaces the conjunction and values of the filter that the builder
+	// creates, the values keep their order
+	private SearchFilter filter(String field, Conjunction conjunction, SearchFilterValue... values) {
+		SearchFilter filter = new SearchQueryBuilder().filter(field, values[0]).build().getFilters().get(0);
+		filter.conjunction = conjunction;
+		filter.values = new LinkedHashSet<>(Arrays.asList(values));
+		return filter;
+	}
+
+	private SearchQuery multiFilter(Conjunction conjunction, SearchFilterValue value, String... fields) {
+		SearchQuery query = new SearchQueryBuilder()
+				.filter(new LinkedHashSet<>(Arrays.asList(fields)), value)
+				.build();
+		MultiSearchFilter filter = query.getMultiFilters().get(0);
+		filter.conjunction = conjunction;
+		filter.fields = new LinkedHashSet<>(Arrays.asList(fields));
+		return query;
+	}
+
+}